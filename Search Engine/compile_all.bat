@@ -1,2 +1,2 @@
 if not exist classes mkdir classes
-javac -cp . -d classes ir/Engine.java ir/HashedIndex.java ir/HITSRanker.java ir/Index.java ir/Indexer.java ir/KGramIndex.java ir/KGramPostingsEntry.java ir/NormalizationType.java ir/PersistentHashedIndex.java ir/PostingsEntry.java ir/PostingsList.java ir/Query.java ir/QueryType.java ir/RankingType.java ir/Searcher.java ir/SearchGUI.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/Tokenizer.java ir/TokenTest.java 
+javac -cp . -d classes ir/BiwordEvaluation.java ir/BiwordIndex.java ir/ChampionEvaluation.java ir/ChampionLists.java ir/DocIdSet.java ir/DocReorderer.java ir/Engine.java ir/GraphBisection.java ir/HashedIndex.java ir/HITSRanker.java ir/Index.java ir/Indexer.java ir/IndexWatcher.java ir/ImpactIndex.java ir/IntersectionCache.java ir/KGramIndex.java ir/KGramPostingsEntry.java ir/LevenshteinAutomaton.java ir/NormalizationType.java ir/PageRankScores.java ir/PersistentHashedIndex.java ir/PostingsEntry.java ir/PostingsList.java ir/PostingsUnion.java ir/PruningType.java ir/Query.java ir/QueryType.java ir/RankingType.java ir/RegexAutomaton.java ir/ResultCache.java ir/ScoreAccumulator.java ir/ScoreBounds.java ir/ScoringBenchmark.java ir/Searcher.java ir/SearchGUI.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/TermAutomaton.java ir/TermDictionary.java ir/Tokenizer.java ir/TokenTest.java ir/TopKHeap.java ir/WandEvaluator.java 
@@ -0,0 +1,104 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+
+/**
+ *   Measures the cost and the speed-up of answering phrase queries from a
+ *   biword index, on the persistent index in ./index.
+ *
+ *   The biword index is built with the given threshold and list file, and
+ *   every query in the query file (one phrase per line) is answered both
+ *   from the positional postings and from the biword index.
+ *
+ *   Usage: java ir.BiwordEvaluation -q queryFile [-t threshold] [-l listFile]
+ */
+public class BiwordEvaluation {
+
+    public static void main( String[] args ) throws IOException {
+        String queryFile = null;
+        String listFile = null;
+        int threshold = 1000;
+        int i = 0;
+        while (i < args.length) {
+            if ("-q".equals(args[i]) && i + 1 < args.length) {
+                queryFile = args[i + 1];
+                i += 2;
+            } else if ("-t".equals(args[i]) && i + 1 < args.length) {
+                threshold = Integer.parseInt(args[i + 1]);
+                i += 2;
+            } else if ("-l".equals(args[i]) && i + 1 < args.length) {
+                listFile = args[i + 1];
+                i += 2;
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+        if (queryFile == null) {
+            System.err.println("Usage: java ir.BiwordEvaluation -q queryFile [-t threshold] [-l listFile]");
+            return;
+        }
+
+        ArrayList<String> queries = new ArrayList<String>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(queryFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) queries.add(line.toLowerCase().trim());
+            }
+        }
+
+        PersistentHashedIndex index = new PersistentHashedIndex();
+        ScoreBounds.read(index.scoreBounds, "./index/score_bounds");
+        Searcher searcher = new Searcher(index, null);
+        long start = System.currentTimeMillis();
+        BiwordIndex biwords = BiwordIndex.build(index, threshold, listFile);
+        long buildTime = System.currentTimeMillis() - start;
+        long indexSize = index.dictionaryFile.length() + index.dataFile.length();
+
+        int covered = 0;
+        int mismatches = 0;
+        long positionalTime = 0, biwordTime = 0;
+        for (String queryString : queries) {
+            Query query = new Query(queryString);
+
+            searcher.biwordIndex = null;
+            long t = System.nanoTime();
+            PostingsList positional = searcher.search(query, QueryType.PHRASE_QUERY, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS);
+            long positionalQueryTime = System.nanoTime() - t;
+
+            searcher.biwordIndex = biwords;
+            t = System.nanoTime();
+            PostingsList fromBiwords = searcher.search(query, QueryType.PHRASE_QUERY, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS);
+            long biwordQueryTime = System.nanoTime() - t;
+
+            boolean isCovered = query.queryterm.size() > 1;
+            for (int j = 0; j + 1 < query.queryterm.size(); j++) {
+                isCovered &= biwords.covers(query.queryterm.get(j).term, query.queryterm.get(j + 1).term);
+            }
+            if (!isCovered) continue;
+            covered++;
+            positionalTime += positionalQueryTime;
+            biwordTime += biwordQueryTime;
+            int expected = positional == null ? 0 : positional.size();
+            int found = fromBiwords == null ? 0 : fromBiwords.size();
+            if (expected != found) mismatches++;
+            System.out.println(String.format("%-40s %6d docs  positional %.3f ms  biword %.3f ms",
+                queryString, found, positionalQueryTime / 1e6, biwordQueryTime / 1e6));
+        }
+
+        int n = Math.max(1, covered);
+        System.out.println(String.format("Biword index: threshold %d, %d terms, %d listed pairs", threshold, biwords.terms.size(), biwords.pairs.size()));
+        System.out.println(String.format("Build time: %d ms, size: %d bytes (%.1f%% of the positional index)",
+            buildTime, biwords.sizeInBytes(), 100.0 * biwords.sizeInBytes() / Math.max(1, indexSize)));
+        System.out.println(String.format("Covered queries: %d of %d, result mismatches: %d", covered, queries.size(), mismatches));
+        System.out.println(String.format("Mean time positional: %.3f ms, biword: %.3f ms", positionalTime / 1e6 / n, biwordTime / 1e6 / n));
+    }
+}
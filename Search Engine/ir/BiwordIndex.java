@@ -0,0 +1,240 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+
+/**
+ *   An auxiliary index of adjacent word pairs, for phrase queries over
+ *   common words whose positional lists are long. Only the pairs of
+ *   frequent terms (in at least <code>threshold</code> documents) and
+ *   the pairs or terms in a configured list are indexed. The postings of
+ *   a pair are the documents where the second word follows the first,
+ *   with the positions of the second word as offsets.
+ *
+ *   The list file has one entry per line: a single term is treated like
+ *   a frequent term, two terms separated by a space are one pair.
+ *
+ *   The postings are stored in a persistent hashed index with the suffix
+ *   "_biword" in the index directory.
+ */
+public class BiwordIndex {
+
+    /** Suffix of the dictionary and data files of the pair postings. */
+    public static final String SUFFIX = "_biword";
+
+    /** The file with the covered terms and pairs. */
+    public static final String TERMS_FNAME = "biword_terms";
+
+    /** Terms in at least this many documents are paired with each other, 0 for none. */
+    int threshold;
+
+    /** The list file the index was built with, or null. */
+    String listFile;
+
+    /** Number of documents when the index was built. */
+    int docCount;
+
+    /** Terms whose pairs with each other are indexed. */
+    HashSet<String> terms = new HashSet<String>();
+
+    /** Pairs "first second" that are indexed in addition. */
+    HashSet<String> pairs = new HashSet<String>();
+
+    /** The postings of the pairs. */
+    PersistentHashedIndex postings;
+
+
+    /**
+     *  Builds the pair index from the positions in the main index, and
+     *  writes it to the index directory.
+     */
+    public static BiwordIndex build( Index index, int threshold, String listFile ) {
+        long start = System.currentTimeMillis();
+        BiwordIndex biwords = new BiwordIndex();
+        biwords.threshold = threshold;
+        biwords.listFile = listFile;
+        biwords.docCount = index.docNames.size();
+        if (threshold > 0) {
+            for (String term : index.terms()) {
+                if (index.docFrequency(term) >= threshold) biwords.terms.add(term);
+            }
+        }
+        if (listFile != null) {
+            biwords.readList(listFile);
+        }
+
+        // every term that can be in a pair, with its postings
+        HashSet<String> pairTerms = new HashSet<String>(biwords.terms);
+        for (String pair : biwords.pairs) {
+            pairTerms.addAll(Arrays.asList(pair.split(" ")));
+        }
+        ArrayList<String> termList = new ArrayList<String>();
+        ArrayList<PostingsList> lists = new ArrayList<PostingsList>();
+        for (String term : pairTerms) {
+            PostingsList list = index.getPostings(term);
+            if (list == null || list.size() == 0) continue;
+            termList.add(term);
+            lists.add(list);
+        }
+
+        new File( PersistentHashedIndex.INDEXDIR + "/" + PersistentHashedIndex.DICTIONARY_FNAME + SUFFIX ).delete();
+        new File( PersistentHashedIndex.INDEXDIR + "/" + PersistentHashedIndex.DATA_FNAME + SUFFIX ).delete();
+        biwords.postings = new PersistentHashedIndex( SUFFIX );
+
+        // go through the documents in order, and find the adjacent
+        // positions of the terms in each of them
+        int[] next = new int[lists.size()];
+        long[] positions = new long[16];
+        while (true) {
+            int docID = Integer.MAX_VALUE;
+            for (int t = 0; t < lists.size(); t++) {
+                if (next[t] < lists.get(t).size()) docID = Math.min(docID, lists.get(t).get(next[t]).docID);
+            }
+            if (docID == Integer.MAX_VALUE) break;
+            int n = 0;
+            for (int t = 0; t < lists.size(); t++) {
+                if (next[t] == lists.get(t).size() || lists.get(t).get(next[t]).docID != docID) continue;
+                for (int offset : lists.get(t).get(next[t]).getOffsets()) {
+                    if (n == positions.length) positions = Arrays.copyOf(positions, 2 * n);
+                    positions[n++] = ((long) offset << 32) | t;
+                }
+                next[t]++;
+            }
+            Arrays.sort(positions, 0, n);
+            for (int i = 0; i + 1 < n; i++) {
+                int offset = (int) (positions[i + 1] >>> 32);
+                if (offset != (int) (positions[i] >>> 32) + 1) continue;
+                String first = termList.get((int) positions[i]);
+                String second = termList.get((int) positions[i + 1]);
+                if (biwords.covers(first, second)) {
+                    biwords.postings.insert(first + " " + second, docID, offset);
+                }
+            }
+        }
+        int size = biwords.postings.index.size();
+        biwords.postings.writeIndex(true);
+        biwords.postings.index.clear();
+        biwords.write();
+        System.err.println( String.format( "Biword index: %d terms, %d pairs, %d bytes, built in %d ms",
+            biwords.terms.size(), size, biwords.sizeInBytes(), System.currentTimeMillis() - start ));
+        return biwords;
+    }
+
+
+    /**
+     *  Reads the terms and pairs of a list file.
+     */
+    private void readList( String filename ) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(filename), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] words = line.toLowerCase().trim().split("\\s+");
+                if (words.length == 1 && !words[0].isEmpty()) {
+                    terms.add(words[0]);
+                } else if (words.length == 2) {
+                    pairs.add(words[0] + " " + words[1]);
+                }
+            }
+        } catch ( IOException e ) {
+            System.err.println( "Error reading biword list: " + e.getMessage() );
+        }
+    }
+
+
+    /**
+     *  Returns true if the pair is indexed, so that its postings are
+     *  complete (no postings means the words are never adjacent).
+     */
+    public boolean covers( String first, String second ) {
+        return (terms.contains(first) && terms.contains(second)) || pairs.contains(first + " " + second);
+    }
+
+
+    /**
+     *  Returns the postings of a pair, or null if the words are never adjacent.
+     */
+    public PostingsList getPostings( String first, String second ) {
+        return postings.readPostings(first + " " + second);
+    }
+
+
+    /**
+     *  Returns the number of documents where the words are adjacent.
+     */
+    public int docFrequency( String first, String second ) {
+        PersistentHashedIndex.Entry entry = postings.findEntry(first + " " + second);
+        return entry == null ? 0 : entry.df;
+    }
+
+
+    /**
+     *  Returns the size of the dictionary and data files of the pair index.
+     */
+    public long sizeInBytes() {
+        try {
+            return postings.dictionaryFile.length() + postings.dataFile.length();
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+
+    /**
+     *  Writes the covered terms and pairs. The first line has the document
+     *  count, the threshold and the list file, then comes one term or pair
+     *  per line.
+     */
+    private void write() {
+        try (PrintWriter writer = new PrintWriter( PersistentHashedIndex.INDEXDIR + "/" + TERMS_FNAME, "UTF-8" )) {
+            writer.println( docCount + ";" + threshold + ";" + (listFile == null ? "" : listFile) );
+            for (String term : terms) {
+                writer.println( term );
+            }
+            for (String pair : pairs) {
+                writer.println( pair );
+            }
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     *  Opens the pair index in the index directory, or returns null if
+     *  there is none.
+     */
+    public static BiwordIndex read() {
+        File file = new File( PersistentHashedIndex.INDEXDIR + "/" + TERMS_FNAME );
+        if (!file.exists()) return null;
+        BiwordIndex biwords = new BiwordIndex();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String[] header = reader.readLine().split(";", -1);
+            biwords.docCount = Integer.parseInt(header[0]);
+            biwords.threshold = Integer.parseInt(header[1]);
+            biwords.listFile = header[2].isEmpty() ? null : header[2];
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.contains(" ")) {
+                    biwords.pairs.add(line);
+                } else {
+                    biwords.terms.add(line);
+                }
+            }
+        } catch ( IOException | RuntimeException e ) {
+            System.err.println( "Error reading biword terms: " + e.getMessage() );
+            return null;
+        }
+        biwords.postings = new PersistentHashedIndex( SUFFIX );
+        return biwords;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+
+/**
+ *   Measures the recall cost and the speed-up of answering ranked queries
+ *   from champion lists, on the persistent index in ./index.
+ *
+ *   For every query in the query file (one per line), the top k from the
+ *   champion lists is compared with the top k from the full postings.
+ *
+ *   Usage: java ir.ChampionEvaluation -q queryFile [-r championListSize] [-k k] [-pr] [-euclidean]
+ */
+public class ChampionEvaluation {
+
+    public static void main( String[] args ) throws IOException {
+        String queryFile = null;
+        int r = 100;
+        int k = 10;
+        boolean pagerankWeighted = false;
+        NormalizationType normType = NormalizationType.NUMBER_OF_WORDS;
+        int i = 0;
+        while (i < args.length) {
+            if ("-q".equals(args[i]) && i + 1 < args.length) {
+                queryFile = args[i + 1];
+                i += 2;
+            } else if ("-r".equals(args[i]) && i + 1 < args.length) {
+                r = Integer.parseInt(args[i + 1]);
+                i += 2;
+            } else if ("-k".equals(args[i]) && i + 1 < args.length) {
+                k = Integer.parseInt(args[i + 1]);
+                i += 2;
+            } else if ("-pr".equals(args[i])) {
+                pagerankWeighted = true;
+                i++;
+            } else if ("-euclidean".equals(args[i])) {
+                normType = NormalizationType.EUCLIDEAN;
+                i++;
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+        if (queryFile == null) {
+            System.err.println("Usage: java ir.ChampionEvaluation -q queryFile [-r championListSize] [-k k] [-pr] [-euclidean]");
+            return;
+        }
+
+        ArrayList<String> queries = new ArrayList<String>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(queryFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) queries.add(line.toLowerCase().trim());
+            }
+        }
+
+        Index index = new PersistentHashedIndex();
+        Engine.loadEuclideanLengths();
+        ScoreBounds.read(index.scoreBounds, "./index/score_bounds");
+        Searcher searcher = new Searcher(index, null);
+        searcher.pageranks = PageRankScores.read(PersistentHashedIndex.INDEXDIR + "/" + PageRankScores.FNAME, index);
+        if (pagerankWeighted && searcher.pageranks == null) {
+            System.err.println("No PageRank scores in ./index, convert them with ir.PageRankScores");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        ChampionLists champions = ChampionLists.build(index, r, pagerankWeighted ? searcher.pageranks : null);
+        System.err.println("Built champion lists in " + (System.currentTimeMillis() - start) + " ms");
+
+        double recallSum = 0;
+        int fallbacks = 0;
+        long fullTime = 0, championTime = 0;
+        for (String queryString : queries) {
+            Query query = new Query(queryString);
+
+            searcher.championLists = null;
+            long t = System.nanoTime();
+            PostingsList full = searcher.search(query, QueryType.RANKED_QUERY, RankingType.TF_IDF, normType, k);
+            fullTime += System.nanoTime() - t;
+
+            searcher.championLists = champions;
+            t = System.nanoTime();
+            PostingsList tier = searcher.search(query, QueryType.RANKED_QUERY, RankingType.TF_IDF, normType, k);
+            championTime += System.nanoTime() - t;
+
+            HashSet<Integer> tierMatches = new HashSet<Integer>();
+            for (Query.QueryTerm qt : query.queryterm) {
+                PostingsList list = champions.getPostings(qt.term);
+                if (list == null) continue;
+                for (int j = 0; j < list.size(); j++) {
+                    if (!index.isDeleted(list.get(j).docID)) tierMatches.add(list.get(j).docID);
+                }
+            }
+            if (tierMatches.size() < k) fallbacks++;
+
+            HashSet<Integer> relevant = new HashSet<Integer>();
+            for (int j = 0; full != null && j < full.size(); j++) {
+                relevant.add(full.get(j).docID);
+            }
+            int found = 0;
+            for (int j = 0; tier != null && j < tier.size(); j++) {
+                if (relevant.contains(tier.get(j).docID)) found++;
+            }
+            double recall = relevant.isEmpty() ? 1 : (double) found / relevant.size();
+            recallSum += recall;
+            System.out.println(String.format("%-40s recall@%d %.2f", queryString, k, recall));
+        }
+
+        int n = Math.max(1, queries.size());
+        System.out.println(String.format("Champion lists of %d documents%s, %d queries", r, pagerankWeighted ? " by tf*PageRank" : " by tf", queries.size()));
+        System.out.println(String.format("Mean recall@%d: %.3f", k, recallSum / n));
+        System.out.println(String.format("Fell back to the full postings: %d queries", fallbacks));
+        System.out.println(String.format("Mean time full postings: %.3f ms, champion lists: %.3f ms", fullTime / 1e6 / n, championTime / 1e6 / n));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+
+/**
+ *   A first tier of the index with a champion list for every term: the
+ *   r documents with the highest tf per word, or with the highest tf per
+ *   word weighted by PageRank, for each of the two length normalizations.
+ *   Ranked queries are first answered from the champion lists, which are
+ *   much shorter than the postings of frequent terms.
+ */
+public class ChampionLists implements Serializable {
+
+    /** Maximum number of documents chosen for each normalization. */
+    int r;
+
+    /** True if the documents were chosen by tf times PageRank. */
+    boolean pagerankWeighted;
+
+    /** Number of documents when the lists were built. */
+    int docCount;
+
+    /** The docIDs of each champion list, in increasing order. */
+    HashMap<String,int[]> docIDs = new HashMap<String,int[]>();
+
+    /** The tf of each docID in the champion lists. */
+    HashMap<String,double[]> tfs = new HashMap<String,double[]>();
+
+    /** The number of documents containing each term, for the idf. */
+    HashMap<String,Integer> df = new HashMap<String,Integer>();
+
+
+    /**
+     *  Builds the champion lists of all terms in the index. If
+     *  <code>pageranks</code> is not null, the documents are chosen by tf
+     *  times PageRank.
+     */
+    public static ChampionLists build( Index index, int r, PageRankScores pageranks ) {
+        ChampionLists champions = new ChampionLists();
+        champions.r = r;
+        champions.pagerankWeighted = pageranks != null;
+        champions.docCount = index.docNames.size();
+        for (String term : index.terms()) {
+            PostingsList postings = index.getPostings(term);
+            if (postings == null || postings.size() == 0) continue;
+            PostingsEntry[] entries = postings.list.toArray(new PostingsEntry[0]);
+            if (entries.length > r) {
+                // the champions of both normalizations, so that either can be answered
+                PostingsEntry[] byWords = best(entries, r, index.docLengths, pageranks);
+                PostingsEntry[] byEuclidean = best(entries, r, index.euclideanLengths, pageranks);
+                HashSet<Integer> chosen = new HashSet<Integer>();
+                PostingsEntry[] union = new PostingsEntry[2 * r];
+                int n = 0;
+                for (PostingsEntry entry : byWords) {
+                    if (chosen.add(entry.docID)) union[n++] = entry;
+                }
+                for (PostingsEntry entry : byEuclidean) {
+                    if (chosen.add(entry.docID)) union[n++] = entry;
+                }
+                entries = Arrays.copyOf(union, n);
+                Arrays.sort(entries, (a, b) -> Integer.compare(a.docID, b.docID));
+            }
+            int[] ids = new int[entries.length];
+            double[] tf = new double[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                ids[i] = entries[i].docID;
+                tf[i] = entries[i].score;
+            }
+            champions.docIDs.put(term, ids);
+            champions.tfs.put(term, tf);
+            champions.df.put(term, postings.size());
+        }
+        return champions;
+    }
+
+
+    /**
+     *  Returns the r postings with the highest weight when the tf is
+     *  divided by the given document lengths.
+     */
+    private static PostingsEntry[] best( PostingsEntry[] entries, int r, Map<Integer, ? extends Number> lengths, PageRankScores pageranks ) {
+        PostingsEntry[] sorted = entries.clone();
+        Arrays.sort(sorted, (a, b) -> {
+            int c = Double.compare(weight(b, lengths, pageranks), weight(a, lengths, pageranks));
+            if (c == 0) c = Double.compare(b.score, a.score);
+            return c != 0 ? c : Integer.compare(a.docID, b.docID);
+        });
+        return Arrays.copyOf(sorted, r);
+    }
+
+
+    /**
+     *  Returns the value a posting is chosen by. The tf is divided by the
+     *  document length, as in the ranking, or long documents would fill
+     *  the champion lists.
+     */
+    private static double weight( PostingsEntry entry, Map<Integer, ? extends Number> lengths, PageRankScores pageranks ) {
+        Number length = lengths.get(entry.docID);
+        double tf = length != null && length.doubleValue() > 0 ? entry.score / length.doubleValue() : 0;
+        return pageranks == null ? tf : tf * pageranks.score(entry.docID);
+    }
+
+
+    /**
+     *  Returns the champion list of a term as postings with the tf as
+     *  score, or null if the term is not in the index.
+     */
+    public PostingsList getPostings( String term ) {
+        int[] ids = docIDs.get(term);
+        if (ids == null) return null;
+        double[] tf = tfs.get(term);
+        PostingsList postings = new PostingsList();
+        for (int i = 0; i < ids.length; i++) {
+            PostingsEntry entry = new PostingsEntry(ids[i]);
+            entry.setScore(tf[i]);
+            postings.add(entry);
+        }
+        return postings;
+    }
+
+
+    /**
+     *  Returns the number of documents containing the term in the full index.
+     */
+    public int docFrequency( String term ) {
+        return df.getOrDefault(term, 0);
+    }
+
+
+    /**
+     *  Writes the champion lists to a file.
+     */
+    public void write( String filename ) {
+        try (ObjectOutputStream oos = new ObjectOutputStream(
+            new BufferedOutputStream( new FileOutputStream( filename )))) {
+            oos.writeObject( this );
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     *  Reads champion lists written by <code>write</code>, or returns null
+     *  if there are none.
+     */
+    public static ChampionLists read( String filename ) {
+        File file = new File( filename );
+        if (!file.exists()) return null;
+        try (ObjectInputStream ois = new ObjectInputStream(
+            new BufferedInputStream( new FileInputStream( file )))) {
+            return (ChampionLists) ois.readObject();
+        } catch ( ClassNotFoundException | IOException e ) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+
+/**
+ *   A compressed set of docIDs in the style of Roaring bitmaps.
+ *
+ *   The docIDs are split into chunks by their high 16 bits. A chunk with
+ *   few docIDs is stored as a sorted array of the low 16 bits, a dense
+ *   chunk as a bitmap of 1024 longs. Intersection and union of two
+ *   bitmap chunks work on 64 docIDs at a time.
+ */
+public class DocIdSet {
+
+    /** Chunks with more docIDs than this are stored as bitmaps. */
+    static final int ARRAY_LIMIT = 4096;
+
+    /** Number of longs in a bitmap chunk. */
+    static final int BITMAP_WORDS = 1 << 10;
+
+    /** The high 16 bits of the docIDs in each chunk, in increasing order. */
+    private char[] keys = new char[4];
+
+    /** The chunks, in the same order as the keys. */
+    private Container[] containers = new Container[4];
+
+    /** Number of chunks. */
+    private int size = 0;
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  The low 16 bits of the docIDs in one chunk.
+     */
+    private static abstract class Container {
+        abstract int cardinality();
+        abstract boolean contains( char low );
+        abstract Container and( Container other );
+        abstract Container or( Container other );
+        abstract int fill( int high, int[] result, int pos );
+    }
+
+
+    /**
+     *  A sparse chunk, stored as a sorted array.
+     */
+    private static class ArrayContainer extends Container {
+        char[] values;
+        int cardinality;
+
+        ArrayContainer( char[] values, int cardinality ) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        int cardinality() {
+            return cardinality;
+        }
+
+        boolean contains( char low ) {
+            return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+        }
+
+        Container and( Container other ) {
+            char[] result = new char[cardinality];
+            int n = 0;
+            if (other instanceof BitmapContainer) {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) result[n++] = values[i];
+                }
+            } else {
+                ArrayContainer a = (ArrayContainer) other;
+                int i = 0, j = 0;
+                while (i < cardinality && j < a.cardinality) {
+                    if (values[i] == a.values[j]) {
+                        result[n++] = values[i];
+                        i++;
+                        j++;
+                    } else if (values[i] < a.values[j]) {
+                        i++;
+                    } else {
+                        j++;
+                    }
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        Container or( Container other ) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            ArrayContainer a = (ArrayContainer) other;
+            char[] result = new char[cardinality + a.cardinality];
+            int n = 0, i = 0, j = 0;
+            while (i < cardinality && j < a.cardinality) {
+                if (values[i] == a.values[j]) {
+                    result[n++] = values[i];
+                    i++;
+                    j++;
+                } else if (values[i] < a.values[j]) {
+                    result[n++] = values[i++];
+                } else {
+                    result[n++] = a.values[j++];
+                }
+            }
+            while (i < cardinality) result[n++] = values[i++];
+            while (j < a.cardinality) result[n++] = a.values[j++];
+            ArrayContainer union = new ArrayContainer(result, n);
+            return n > ARRAY_LIMIT ? union.toBitmap() : union;
+        }
+
+        BitmapContainer toBitmap() {
+            long[] words = new long[BITMAP_WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+            return new BitmapContainer(words, cardinality);
+        }
+
+        int fill( int high, int[] result, int pos ) {
+            for (int i = 0; i < cardinality; i++) {
+                result[pos++] = high | values[i];
+            }
+            return pos;
+        }
+    }
+
+
+    /**
+     *  A dense chunk, stored as a bitmap.
+     */
+    private static class BitmapContainer extends Container {
+        long[] words;
+        int cardinality;
+
+        BitmapContainer( long[] words, int cardinality ) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        int cardinality() {
+            return cardinality;
+        }
+
+        boolean contains( char low ) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        Container and( Container other ) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] o = ((BitmapContainer) other).words;
+            long[] result = new long[BITMAP_WORDS];
+            int n = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                result[i] = words[i] & o[i];
+                n += Long.bitCount(result[i]);
+            }
+            BitmapContainer intersection = new BitmapContainer(result, n);
+            return n > ARRAY_LIMIT ? intersection : intersection.toArray();
+        }
+
+        Container or( Container other ) {
+            long[] result = words.clone();
+            if (other instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer) other;
+                for (int i = 0; i < a.cardinality; i++) {
+                    result[a.values[i] >>> 6] |= 1L << a.values[i];
+                }
+            } else {
+                long[] o = ((BitmapContainer) other).words;
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    result[i] |= o[i];
+                }
+            }
+            int n = 0;
+            for (long word : result) {
+                n += Long.bitCount(word);
+            }
+            return new BitmapContainer(result, n);
+        }
+
+        ArrayContainer toArray() {
+            char[] values = new char[cardinality];
+            int n = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[n++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+
+        int fill( int high, int[] result, int pos ) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    result[pos++] = high | ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return pos;
+        }
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Returns the set of docIDs in a postings list.
+     */
+    public static DocIdSet of( PostingsList postings ) {
+        DocIdSet set = new DocIdSet();
+        if (postings == null) {
+            return set;
+        }
+        int i = 0;
+        while (i < postings.size()) {
+            // collect one chunk at a time, the postings are sorted by docID
+            int high = postings.get(i).docID >>> 16;
+            int end = i;
+            while (end < postings.size() && (postings.get(end).docID >>> 16) == high) {
+                end++;
+            }
+            char[] values = new char[end - i];
+            for (int j = i; j < end; j++) {
+                values[j - i] = (char) postings.get(j).docID;
+            }
+            ArrayContainer container = new ArrayContainer(values, values.length);
+            set.append((char) high, values.length > ARRAY_LIMIT ? container.toBitmap() : container);
+            i = end;
+        }
+        return set;
+    }
+
+
+    /**
+     *  Adds a chunk after the existing ones.
+     */
+    private void append( char key, Container container ) {
+        if (container.cardinality() == 0) return;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * size);
+            containers = Arrays.copyOf(containers, 2 * size);
+        }
+        keys[size] = key;
+        containers[size] = container;
+        size++;
+    }
+
+
+    /**
+     *  Returns true if the set contains the docID.
+     */
+    public boolean contains( int docID ) {
+        int i = Arrays.binarySearch(keys, 0, size, (char) (docID >>> 16));
+        return i >= 0 && containers[i].contains((char) docID);
+    }
+
+
+    /**
+     *  Returns the number of docIDs in the set.
+     */
+    public int cardinality() {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            n += containers[i].cardinality();
+        }
+        return n;
+    }
+
+
+    /**
+     *  Returns the intersection of this set and another set.
+     */
+    public DocIdSet and( DocIdSet other ) {
+        DocIdSet result = new DocIdSet();
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] == other.keys[j]) {
+                result.append(keys[i], containers[i].and(other.containers[j]));
+                i++;
+                j++;
+            } else if (keys[i] < other.keys[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     *  Returns the union of this set and another set.
+     */
+    public DocIdSet or( DocIdSet other ) {
+        DocIdSet result = new DocIdSet();
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] == other.keys[j]) {
+                result.append(keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            } else if (keys[i] < other.keys[j]) {
+                result.append(keys[i], containers[i]);
+                i++;
+            } else {
+                result.append(other.keys[j], other.containers[j]);
+                j++;
+            }
+        }
+        while (i < size) {
+            result.append(keys[i], containers[i]);
+            i++;
+        }
+        while (j < other.size) {
+            result.append(other.keys[j], other.containers[j]);
+            j++;
+        }
+        return result;
+    }
+
+
+    /**
+     *  Returns the docIDs in increasing order.
+     */
+    public int[] toArray() {
+        int[] result = new int[cardinality()];
+        int pos = 0;
+        for (int i = 0; i < size; i++) {
+            pos = containers[i].fill(keys[i] << 16, result, pos);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntToDoubleFunction;
+
+
+/**
+ *   Renumbers the documents of the persistent index in ./index.
+ *
+ *   By default the documents are put in order of decreasing static rank,
+ *   so that the best documents come first in every postings list. The
+ *   static rank is the PageRank in ./index/pagerank, or a prior read from
+ *   a file in the same "document score" format as the output of the
+ *   PageRank program. When the docIDs follow the PageRank, PAGERANK and
+ *   COMBINATION queries stop as soon as the documents left can't make the
+ *   top k. With any other order they are evaluated in full.
+ *
+ *   The other orders put similar documents next to each other, so that
+ *   the gaps between the docIDs of a postings list are small: by path,
+ *   by title (the file name), or by recursive bisection of the
+ *   term-document graph. The size of the postings and the size of their
+ *   docID gaps as variable-byte codes are printed before and after, and
+ *   with -q the mean time of the queries in the file.
+ *
+ *   The postings, the doc info, the Euclidean lengths, the score bounds
+ *   and the PageRank array are rewritten with the new docIDs. The
+ *   champion lists, the impact-ordered index, the biword index and the
+ *   mapping of documents to HITS nodes are removed, so the engine builds
+ *   them again.
+ *
+ *   Usage: java ir.DocReorderer [-order rank|path|title|bisection] [-prior priorFile] [-q queryFile]
+ */
+public class DocReorderer {
+
+    /**
+     *  Returns the new docID of each document when the documents are
+     *  sorted by decreasing score, and by docID when the scores are
+     *  equal. The new docIDs are 0 to N-1, docIDs that are not in the
+     *  index get -1.
+     */
+    static int[] byScore( Index index, IntToDoubleFunction score ) {
+        ArrayList<Integer> order = new ArrayList<Integer>(index.docNames.keySet());
+        order.sort((a, b) -> {
+            int c = Double.compare(score.applyAsDouble(b), score.applyAsDouble(a));
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+        return renumbering(order);
+    }
+
+
+    /**
+     *  Returns the new docID of each document when the documents are
+     *  sorted by a key of their name, and by docID when the keys are
+     *  equal.
+     */
+    static int[] byName( Index index, Function<String,String> key ) {
+        ArrayList<Integer> order = new ArrayList<Integer>(index.docNames.keySet());
+        order.sort((a, b) -> {
+            int c = key.apply(index.docNames.get(a)).compareTo(key.apply(index.docNames.get(b)));
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+        return renumbering(order);
+    }
+
+
+    /**
+     *  Returns the new docID of each document in the order found by
+     *  recursive bisection of the term-document graph.
+     */
+    static int[] byBisection( PersistentHashedIndex index ) throws IOException {
+        ArrayList<Integer> docIDs = new ArrayList<Integer>(index.docNames.keySet());
+        docIDs.sort(null);
+        int[] position = renumbering(docIDs);
+
+        // the terms of each document, terms in a single document are left out
+        int[][] terms = new int[docIDs.size()][];
+        int[] sizes = new int[docIDs.size()];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = new int[8];
+        }
+        int[] numTerms = { 0 };
+        index.forEachTerm((term, postings) -> {
+            if (postings.size() < 2) return;
+            int t = numTerms[0]++;
+            for (int i = 0; i < postings.size(); i++) {
+                int docID = postings.get(i).docID;
+                if (docID >= position.length || position[docID] < 0) continue;
+                int doc = position[docID];
+                if (sizes[doc] == terms[doc].length) {
+                    terms[doc] = Arrays.copyOf(terms[doc], 2 * sizes[doc]);
+                }
+                terms[doc][sizes[doc]++] = t;
+            }
+        });
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = Arrays.copyOf(terms[i], sizes[i]);
+        }
+
+        ArrayList<Integer> order = new ArrayList<Integer>();
+        for (int doc : new GraphBisection(terms, numTerms[0]).order()) {
+            order.add(docIDs.get(doc));
+        }
+        return renumbering(order);
+    }
+
+
+    /**
+     *  Returns the new docID of each document, which is its position in
+     *  the order, or -1 for docIDs that are not in it.
+     */
+    static int[] renumbering( ArrayList<Integer> order ) {
+        int maxDocID = -1;
+        for (int docID : order) {
+            maxDocID = Math.max(maxDocID, docID);
+        }
+        int[] newDocID = new int[maxDocID + 1];
+        Arrays.fill(newDocID, -1);
+        for (int i = 0; i < order.size(); i++) {
+            newDocID[order.get(i)] = i;
+        }
+        return newDocID;
+    }
+
+
+    /** Returns the number of bytes of a variable-byte code of n. */
+    static int vbyteLength( int n ) {
+        int bytes = 1;
+        while (n >= 128) {
+            n >>>= 7;
+            bytes++;
+        }
+        return bytes;
+    }
+
+
+    /**
+     *  Prints the number of postings, the size of the postings as they
+     *  are stored, and the size of their docID gaps as variable-byte codes.
+     */
+    static void printSize( PersistentHashedIndex index ) throws IOException {
+        long[] size = new long[3];
+        index.forEachTerm((term, postings) -> {
+            int previous = -1;
+            for (int i = 0; i < postings.size(); i++) {
+                int docID = postings.get(i).docID;
+                size[2] += vbyteLength(docID - previous);
+                previous = docID;
+            }
+            size[0] += postings.size();
+            size[1] += postings.toString().getBytes(StandardCharsets.UTF_8).length;
+        });
+        System.out.println(String.format("%d postings, %d bytes of postings text, %d bytes of docID gaps as variable-byte codes (%.2f bits per posting)",
+                                         size[0], size[1], size[2], 8.0 * size[2] / Math.max(1, size[0])));
+    }
+
+
+    /**
+     *  Prints the mean time of the queries as intersection queries and as
+     *  ranked tf-idf queries for the top k. Every query is run once before
+     *  it is timed.
+     */
+    static void printLatency( Index index, ArrayList<String> queries, int k ) {
+        Searcher searcher = new Searcher(index, null);
+        for (QueryType queryType : new QueryType[] { QueryType.INTERSECTION_QUERY, QueryType.RANKED_QUERY }) {
+            long time = 0;
+            for (int pass = 0; pass < 2; pass++) {
+                time = 0;
+                for (String queryString : queries) {
+                    long t = System.nanoTime();
+                    searcher.search(new Query(queryString), queryType, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS, k);
+                    time += System.nanoTime() - t;
+                }
+            }
+            System.out.println(String.format("%s: %.3f ms per query", queryType, time / 1e6 / Math.max(1, queries.size())));
+        }
+    }
+
+
+    /**
+     *  Renumbers the documents of the index and rewrites everything in
+     *  ./index that depends on the docIDs.
+     */
+    public static void reorder( PersistentHashedIndex index, int[] newDocID ) {
+        String dir = PersistentHashedIndex.INDEXDIR + "/";
+        PageRankScores pageranks = PageRankScores.read( dir + PageRankScores.FNAME, index );
+        index.renumber( newDocID );
+
+        try (PrintWriter writer = new PrintWriter( dir + "euclidean_lengths.txt" )) {
+            for (Map.Entry<Integer,Double> entry : index.euclideanLengths.entrySet()) {
+                writer.println( entry.getKey() + " " + entry.getValue() );
+            }
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+
+        // the blocks of the bounds end at docIDs
+        System.err.print( "Computing score bounds..." );
+        for (String term : new ArrayList<String>(index.scoreBounds.keySet())) {
+            PostingsList postings = index.getPostings( term );
+            if (postings == null) {
+                index.scoreBounds.remove( term );
+            } else {
+                index.scoreBounds.put( term, ScoreBounds.of( postings, index ));
+            }
+        }
+        ScoreBounds.write( index.scoreBounds, dir + "score_bounds" );
+        System.err.println( "done!" );
+
+        if (pageranks != null) {
+            PageRankScores.write( pageranks.renumbered( newDocID ), PageRankScores.liveDocuments( index ), dir + PageRankScores.FNAME );
+        }
+
+        // the derived files only check the number of documents, which hasn't changed
+        new File( dir + "impact_index" ).delete();
+        new File( dir + "champions" ).delete();
+        new File( dir + PersistentHashedIndex.DICTIONARY_FNAME + BiwordIndex.SUFFIX ).delete();
+        new File( dir + PersistentHashedIndex.DATA_FNAME + BiwordIndex.SUFFIX ).delete();
+        new File( dir + BiwordIndex.TERMS_FNAME ).delete();
+        new File( dir + HITSRanker.MAPPING_FNAME ).delete();
+    }
+
+
+    public static void main( String[] args ) throws IOException {
+        String order = "rank";
+        String priorFile = null;
+        String queryFile = null;
+        int i = 0;
+        while (i < args.length) {
+            if ("-order".equals(args[i]) && i + 1 < args.length) {
+                order = args[i + 1];
+                i += 2;
+            } else if ("-prior".equals(args[i]) && i + 1 < args.length) {
+                priorFile = args[i + 1];
+                i += 2;
+            } else if ("-q".equals(args[i]) && i + 1 < args.length) {
+                queryFile = args[i + 1];
+                i += 2;
+            } else {
+                System.err.println( "Usage: java ir.DocReorderer [-order rank|path|title|bisection] [-prior priorFile] [-q queryFile]" );
+                return;
+            }
+        }
+
+        ArrayList<String> queries = new ArrayList<String>();
+        if (queryFile != null) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(queryFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) queries.add(line.toLowerCase().trim());
+                }
+            }
+        }
+
+        PersistentHashedIndex index = new PersistentHashedIndex();
+        Engine.loadEuclideanLengths();
+        ScoreBounds.read( index.scoreBounds, PersistentHashedIndex.INDEXDIR + "/score_bounds" );
+        // the segments are merged before anything is measured, so both measurements see one index
+        index.mergeSegments();
+
+        int[] newDocID;
+        long start = System.currentTimeMillis();
+        if ("path".equals(order)) {
+            newDocID = byName( index, path -> path );
+        } else if ("title".equals(order)) {
+            newDocID = byName( index, path -> PageRankScores.fileName(path).toLowerCase() );
+        } else if ("bisection".equals(order)) {
+            newDocID = byBisection( index );
+        } else if (!"rank".equals(order)) {
+            System.err.println( "Unknown order: " + order );
+            return;
+        } else if (priorFile != null) {
+            // the prior only decides the order, the PageRank is renumbered with the documents
+            float[] prior = PageRankScores.parse( priorFile, index );
+            if (prior == null) return;
+            newDocID = byScore( index, docID -> docID < prior.length ? prior[docID] : 0 );
+        } else {
+            PageRankScores pageranks = PageRankScores.read( PersistentHashedIndex.INDEXDIR + "/" + PageRankScores.FNAME, index );
+            if (pageranks == null) {
+                System.err.println( "No PageRank scores in ./index, convert them with ir.PageRankScores or give a prior" );
+                return;
+            }
+            newDocID = byScore( index, pageranks::score );
+        }
+        System.err.println( "Ordered " + index.docNames.size() + " documents by " + order + " in " + (System.currentTimeMillis() - start) + " ms" );
+
+        System.out.println( "Before:" );
+        printSize( index );
+        if (!queries.isEmpty()) printLatency( index, queries, 10 );
+
+        reorder( index, newDocID );
+
+        System.out.println( "After ordering by " + order + ":" );
+        printSize( index );
+        if (!queries.isEmpty()) printLatency( index, queries, 10 );
+    }
+}
@@ -8,6 +8,7 @@
 package ir;
 
 import java.util.ArrayList;
+import java.util.Objects;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
@@ -55,12 +56,67 @@ public class Engine {
     /** The file containing the logo. */
     String pic_file = "";
 
-    /** The file containing the pageranks. */
+    /** The file containing the pageranks, as written by the PageRank program. It is converted to ./index/pagerank. */
     String rank_file = "";
 
     /** For persistent indexes, we might not need to do any indexing. */
     boolean is_indexing = true;
 
+    /** For persistent indexes, only index new and changed files into a new segment. */
+    boolean is_incremental = false;
+
+    /** For persistent indexes, merge all segments into the main index. */
+    boolean merge_segments = false;
+
+    /** Evaluate long ranked queries score-at-a-time on an impact-ordered layout. */
+    boolean use_impact_index = false;
+
+    /** Maximum number of postings a score-at-a-time query processes. */
+    long posting_budget = 100000;
+
+    /** Maximum number of expansions of a wildcard term in ranked queries. */
+    int wildcard_limit = 50;
+
+    /** Size of the champion lists, 0 if ranked queries don't use them. */
+    int champions_r = 0;
+
+    /** Choose the champions by tf times PageRank instead of by tf. */
+    boolean champions_pagerank = false;
+
+    /** Terms in at least this many documents get a biword index of their pairs, 0 for none. */
+    int biword_threshold = 0;
+
+    /** File with the terms and pairs to put in the biword index, or null. */
+    String biword_list = null;
+
+    /** The links and the titles of the link graph for HITS, as read by HITSRanker. */
+    String links_file = "linksDavis.txt";
+    String titles_file = "davisTitles.txt";
+
+    /** HITS starts from this many of the best documents by tf-idf, 0 for all matching documents. */
+    int hits_root = 200;
+
+    /** At most this many links into a root page are added to the HITS base set, 0 for all. */
+    int hits_inlinks = 50;
+
+    /** Maximum number of HITS iterations of a query. */
+    int hits_iterations = HITSRanker.MAX_NUMBER_OF_STEPS;
+
+    /** Milliseconds the HITS iterations of a query may take, 0 for no limit. */
+    long hits_time = 0;
+
+    /** For persistent indexes, renumber the documents in order of decreasing PageRank. */
+    boolean static_order = false;
+
+    /** Number of documents in the cached query results, 0 if results aren't cached. */
+    int cache_size = 1000000;
+
+    /** Number of documents in the cached term pairs of intersection queries, 0 if pairs aren't cached. */
+    int pair_cache_size = 1000000;
+
+    /** For persistent indexes, keep indexing files as they change in the directories. */
+    boolean is_watching = false;
+
 
     /* ----------------------------------------------- */
 
@@ -73,6 +129,17 @@ public class Engine {
         decodeArgs( args );
         indexer = new Indexer( index, kgIndex, patterns_file );
         searcher = new Searcher( index, kgIndex );
+        searcher.postingBudget = posting_budget;
+        searcher.wildcardExpansionLimit = wildcard_limit;
+        searcher.resultCache = cache_size > 0 ? new ResultCache( cache_size ) : null;
+        searcher.hitsRootSize = hits_root;
+        searcher.intersectionCache = pair_cache_size > 0 ? new IntersectionCache( pair_cache_size ) : null;
+        if (new File( links_file ).exists() && new File( titles_file ).exists()) {
+            searcher.hitsRanker = new HITSRanker( links_file, titles_file, index );
+            searcher.hitsRanker.maxInLinks = hits_inlinks;
+            searcher.hitsRanker.maxIterations = hits_iterations;
+            searcher.hitsRanker.timeBudget = hits_time;
+        }
         speller = new SpellChecker( index, kgIndex );
         gui = new SearchGUI( this );
         gui.init();
@@ -86,32 +153,117 @@ public class Engine {
             synchronized ( indexLock ) {
                 gui.displayInfoText( "Indexing, please wait..." );
                 long startTime = System.currentTimeMillis();
+                indexer.startIndexing( is_incremental );
                 for ( int i=0; i<dirNames.size(); i++ ) {
                     File dokDir = new File( dirNames.get( i ));
                     indexer.processFiles( dokDir, is_indexing );
                 }
+                indexer.finishIndexing();
                 System.out.println("Writing euclidean lenghts file");
                 indexer.writeEuclideanLengths("./index/euclidean_lengths.txt");
                 kgIndex.writeKGramIndex();
                 long elapsedTime = System.currentTimeMillis() - startTime;
                 gui.displayInfoText( String.format( "Indexing done in %.1f seconds.", elapsedTime/1000.0 ));
                 index.cleanup();
+                indexer.writeScoreBounds("./index/score_bounds");
+                if (searcher.hitsRanker != null) {
+                    searcher.hitsRanker.mapDocuments( true );
+                }
             }
         } else {
             System.out.println("Found euclidean lenghts file");
             loadEuclideanLengths();
+            ScoreBounds.read(index.scoreBounds, "./index/score_bounds");
             gui.displayInfoText( "Index is loaded from disk" );
         }
+        String pagerankFile = "./index/" + PageRankScores.FNAME;
+        if (!rank_file.isEmpty()) {
+            File binary = new File( pagerankFile );
+            if (is_indexing || !binary.exists() || new File( rank_file ).lastModified() > binary.lastModified()) {
+                synchronized ( indexLock ) {
+                    PageRankScores.convert( rank_file, index, pagerankFile );
+                }
+            }
+        } else if (is_indexing && !is_incremental) {
+            // the documents have new docIDs, the old scores would go to the wrong ones
+            new File( pagerankFile ).delete();
+        }
+        searcher.pageranks = PageRankScores.read( pagerankFile, index );
+        if (static_order) {
+            if (!(index instanceof PersistentHashedIndex) || searcher.pageranks == null) {
+                System.err.println( "Renumbering by PageRank needs a persistent index and PageRank scores" );
+            } else if (!searcher.pageranks.isDescending()) {
+                synchronized ( indexLock ) {
+                    DocReorderer.reorder( (PersistentHashedIndex) index, DocReorderer.byScore( index, searcher.pageranks::score ));
+                    searcher.pageranks = PageRankScores.read( pagerankFile, index );
+                }
+            }
+        }
+        if (merge_segments && index instanceof PersistentHashedIndex) {
+            synchronized ( indexLock ) {
+                ((PersistentHashedIndex) index).mergeSegments();
+            }
+        }
+        if (use_impact_index) {
+            synchronized ( indexLock ) {
+                searcher.impactIndex = is_indexing ? null : ImpactIndex.read( "./index/impact_index" );
+                if (searcher.impactIndex == null || searcher.impactIndex.docCount != index.docNames.size()) {
+                    System.err.println( "Building impact-ordered index" );
+                    searcher.impactIndex = ImpactIndex.build( index );
+                    searcher.impactIndex.write( "./index/impact_index" );
+                }
+                if (searcher.impactIndex.postings.isEmpty() && !index.docNames.isEmpty()) {
+                    // a layout without terms would answer every long query with nothing
+                    System.err.println( "The impact-ordered index has no terms, it is not used" );
+                    searcher.impactIndex = null;
+                }
+            }
+        }
+        if (champions_r > 0) {
+            synchronized ( indexLock ) {
+                ChampionLists champions = is_indexing ? null : ChampionLists.read( "./index/champions" );
+                if (champions == null || champions.docCount != index.docNames.size()
+                    || champions.r != champions_r || champions.pagerankWeighted != champions_pagerank) {
+                    System.err.println( "Building champion lists" );
+                    if (champions_pagerank && searcher.pageranks == null) {
+                        System.err.println( "No PageRank scores, the champions are chosen by tf" );
+                    }
+                    champions = ChampionLists.build( index, champions_r, champions_pagerank ? searcher.pageranks : null );
+                    champions.write( "./index/champions" );
+                }
+                searcher.championLists = champions;
+            }
+        }
+        if ((biword_threshold > 0 || biword_list != null) && index instanceof PersistentHashedIndex) {
+            synchronized ( indexLock ) {
+                BiwordIndex biwords = is_indexing ? null : BiwordIndex.read();
+                if (biwords == null || biwords.docCount != index.docNames.size() || biwords.threshold != biword_threshold
+                    || !Objects.equals( biwords.listFile, biword_list )) {
+                    System.err.println( "Building biword index" );
+                    biwords = BiwordIndex.build( index, biword_threshold, biword_list );
+                }
+                searcher.biwordIndex = biwords;
+            }
+        }
+        if (is_watching) {
+            if (index instanceof PersistentHashedIndex) {
+                Thread watcher = new Thread( new IndexWatcher( this ));
+                watcher.setDaemon( true );
+                watcher.start();
+            } else {
+                System.err.println( "Watch mode needs a persistent index" );
+            }
+        }
     }
 
-    private void loadEuclideanLengths() {
+    static void loadEuclideanLengths() {
         try (BufferedReader br = new BufferedReader(new FileReader("./index/euclidean_lengths.txt"))) {
             String line;
             while ((line = br.readLine()) != null) {
                 String[] parts = line.split(" ");
                 int docID = Integer.parseInt(parts[0]);
                 double len = Double.parseDouble(parts[1]);
-                index.euclideanLengths.put(docID, len);
+                Index.euclideanLengths.put(docID, len);
             }
         } catch (IOException e) {
             System.err.println("Error loading Euclidean lengths: " + e.getMessage());
@@ -148,6 +300,87 @@ public class Engine {
             } else if ( "-ni".equals( args[i] )) {
                 i++;
                 is_indexing = false;
+            } else if ( "-inc".equals( args[i] )) {
+                i++;
+                is_incremental = true;
+            } else if ( "-merge".equals( args[i] )) {
+                i++;
+                merge_segments = true;
+            } else if ( "-impact".equals( args[i] )) {
+                i++;
+                use_impact_index = true;
+            } else if ( "-budget".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    posting_budget = Long.parseLong( args[i++] );
+                }
+            } else if ( "-wildcard_limit".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    wildcard_limit = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-champions".equals( args[i] ) || "-champions_pr".equals( args[i] )) {
+                champions_pagerank = "-champions_pr".equals( args[i] );
+                i++;
+                if ( i < args.length ) {
+                    champions_r = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-biword".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    biword_threshold = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-biword_list".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    biword_list = args[i++];
+                }
+            } else if ( "-cache".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    cache_size = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-pair_cache".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    pair_cache_size = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-links".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    links_file = args[i++];
+                }
+            } else if ( "-titles".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    titles_file = args[i++];
+                }
+            } else if ( "-hits_root".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    hits_root = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-hits_inlinks".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    hits_inlinks = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-hits_iterations".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    hits_iterations = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-hits_time".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    hits_time = Long.parseLong( args[i++] );
+                }
+            } else if ( "-static_order".equals( args[i] )) {
+                i++;
+                static_order = true;
+            } else if ( "-w".equals( args[i] )) {
+                i++;
+                is_watching = true;
             } else {
                 System.err.println( "Unknown option: " + args[i] );
                 break;
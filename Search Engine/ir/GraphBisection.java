@@ -0,0 +1,149 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+
+/**
+ *   Orders documents so that documents with many terms in common get
+ *   nearby docIDs, by recursive bisection of the term-document graph.
+ *
+ *   The documents are split in two halves, and documents are swapped
+ *   between the halves as long as that makes the postings lists cheaper
+ *   to store. A term with d of the n documents of a half is charged
+ *   d log(n / (d+1)), which estimates the number of bits of its docID
+ *   gaps in that half. Each half is then split in the same way, until the
+ *   parts are small. Terms in only one document cost the same wherever
+ *   the document goes, and are left out.
+ */
+class GraphBisection {
+
+    /** Parts with at most this many documents are not split. */
+    static final int MIN_PARTITION = 16;
+
+    /** Maximum number of swapping rounds for each split. */
+    static final int ITERATIONS = 20;
+
+    /** The terms of each document, by the position of the document in the input. */
+    private final int[][] terms;
+
+    /** The number of documents with each term in the left and the right half. */
+    private final int[] leftDegree, rightDegree;
+
+    /** The gain of moving a document with each term out of its half. */
+    private final double[] leftGain, rightGain;
+
+    /** The round the gains of each term were computed in. */
+    private final int[] computed;
+    private int round = 0;
+
+
+    /**
+     *  Creates a bisection of the documents with the given terms. The
+     *  terms are numbered from 0 to <code>numTerms</code>-1.
+     */
+    GraphBisection( int[][] terms, int numTerms ) {
+        this.terms = terms;
+        leftDegree = new int[numTerms];
+        rightDegree = new int[numTerms];
+        leftGain = new double[numTerms];
+        rightGain = new double[numTerms];
+        computed = new int[numTerms];
+    }
+
+
+    /**
+     *  Returns the documents in the new order, as positions in the input.
+     */
+    int[] order() {
+        int[] docs = new int[terms.length];
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = i;
+        }
+        bisect(docs, 0, docs.length);
+        return docs;
+    }
+
+
+    /** Splits docs[from..to) and then each half. */
+    private void bisect( int[] docs, int from, int to ) {
+        if (to - from <= MIN_PARTITION) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (!swap(docs, from, mid, to)) break;
+        }
+        bisect(docs, from, mid);
+        bisect(docs, mid, to);
+    }
+
+
+    /**
+     *  Swaps the pairs of documents that gain the most by changing
+     *  halves. Returns false if no pair was swapped.
+     */
+    private boolean swap( int[] docs, int from, int mid, int to ) {
+        count(docs, from, mid, leftDegree, 1);
+        count(docs, mid, to, rightDegree, 1);
+        round++;
+        int leftSize = mid - from;
+        int rightSize = to - mid;
+        Integer[] left = new Integer[leftSize];
+        Integer[] right = new Integer[rightSize];
+        double[] gain = new double[to - from];
+        for (int i = from; i < to; i++) {
+            double g = 0;
+            for (int t : terms[docs[i]]) {
+                if (computed[t] != round) {
+                    computed[t] = round;
+                    int l = leftDegree[t], r = rightDegree[t];
+                    double before = cost(l, leftSize) + cost(r, rightSize);
+                    leftGain[t] = before - cost(l - 1, leftSize) - cost(r + 1, rightSize);
+                    rightGain[t] = before - cost(l + 1, leftSize) - cost(r - 1, rightSize);
+                }
+                g += i < mid ? leftGain[t] : rightGain[t];
+            }
+            gain[i - from] = g;
+            if (i < mid) {
+                left[i - from] = i;
+            } else {
+                right[i - mid] = i;
+            }
+        }
+        Arrays.sort(left, (a, b) -> Double.compare(gain[b - from], gain[a - from]));
+        Arrays.sort(right, (a, b) -> Double.compare(gain[b - from], gain[a - from]));
+        count(docs, from, mid, leftDegree, -1);
+        count(docs, mid, to, rightDegree, -1);
+
+        int swapped = 0;
+        for (int i = 0; i < Math.min(leftSize, rightSize); i++) {
+            if (gain[left[i] - from] + gain[right[i] - from] <= 0) break;
+            int doc = docs[left[i]];
+            docs[left[i]] = docs[right[i]];
+            docs[right[i]] = doc;
+            swapped++;
+        }
+        return swapped > 0;
+    }
+
+
+    /** Adds <code>delta</code> to the degree of every term of docs[from..to). */
+    private void count( int[] docs, int from, int to, int[] degree, int delta ) {
+        for (int i = from; i < to; i++) {
+            for (int t : terms[docs[i]]) {
+                degree[t] += delta;
+            }
+        }
+    }
+
+
+    /** The estimated cost of a term in d of the n documents of a half. */
+    private static double cost( int d, int n ) {
+        return d <= 0 ? 0 : d * Math.log((double) n / (d + 1));
+    }
+}
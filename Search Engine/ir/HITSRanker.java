@@ -24,6 +24,22 @@ public class HITSRanker {
      */
     final static double EPSILON = 0.000001;
 
+    /**
+     *   At most this many links into each page of the root set are added
+     *   to the base set, 0 for all of them
+     */
+    int maxInLinks = 50;
+
+    /**
+     *   Max number of iterations of a query
+     */
+    int maxIterations = MAX_NUMBER_OF_STEPS;
+
+    /**
+     *   The iterations of a query stop after this many milliseconds, 0 for no limit
+     */
+    long timeBudget = 0;
+
     /**
      *   The inverted index
      */
@@ -36,17 +52,83 @@ public class HITSRanker {
     HashMap<Integer, String> idToTitle = new HashMap<Integer, String>();
 
     /**
-     *   Sparse vector containing hub scores
+     *   The nodeID of each node of the graph. The nodes are numbered from
+     *   0 in the order they are read, and the arrays below are indexed by
+     *   these numbers.
+     */
+    int[] nodeIDs = new int[0];
+
+    /**
+     *   The node of each nodeID
+     */
+    HashMap<Integer,Integer> nodeOf = new HashMap<Integer,Integer>();
+
+    /**
+     *   The title of each node, or null if it has none
+     */
+    String[] titles = new String[0];
+
+    /**
+     *   The links in compressed sparse row form: the links out of node i go
+     *   to outTargets[outOffsets[i]] to outTargets[outOffsets[i+1]-1], and
+     *   the links into it come from the inTargets between the inOffsets.
+     */
+    int[] outOffsets = new int[1];
+    int[] outTargets = new int[0];
+    int[] inOffsets = new int[1];
+    int[] inTargets = new int[0];
+
+    /**
+     *   The nodes of the last base set, and their hub and authority scores
+     */
+    int[] baseNodes = new int[0];
+    double[] hubs = new double[0];
+    double[] authorities = new double[0];
+
+    /**
+     *   The number of iterations of the last computation
+     */
+    int iterations = 0;
+
+    /**
+     *   The size of the root set, the number of links in the base set and
+     *   the time in milliseconds of the last query
+     */
+    int rootSize = 0;
+    int baseLinks = 0;
+    double lastTime = 0;
+
+    /**
+     *   Why the iterations of the last computation stopped
+     */
+    String stopReason = "";
+
+    /**
+     *   The position of each node in the base set, -1 for the nodes outside it
+     */
+    private int[] local = new int[0];
+
+    /**
+     *   The file in the index directory of a persistent index that keeps
+     *   the node of each docID
+     */
+    static final String MAPPING_FNAME = "hits_nodes";
+
+    /**
+     *   The node of each docID, -1 for documents that are not in the graph
+     */
+    int[] nodeOfDoc = new int[0];
+
+    /**
+     *   The docID of each node, -1 for nodes that are not in the index
      */
-    HashMap<Integer,Double> hubs;
+    int[] docOfNode = new int[0];
 
     /**
-     *   Sparse vector containing authority scores
+     *   The generation of the index the mapping was made for, -1 if there is none
      */
-    HashMap<Integer,Double> authorities;
+    private long mappingGeneration = -1;
 
-    HashMap<Integer, List<Integer>> outLinks = new HashMap<>();
-    HashMap<Integer, List<Integer>> inLinks = new HashMap<>();
     final static double ALPHA = 0.5;
 
     
@@ -112,6 +194,10 @@ public class HITSRanker {
         //
 
         // read title-id mapping
+        titleToId.clear();
+        idToTitle.clear();
+        nodeOf.clear();
+        int n = 0;
         try (BufferedReader br = new BufferedReader(new FileReader(titlesFilename))) {
             String line;
             while ((line = br.readLine()) != null) {
@@ -123,14 +209,16 @@ public class HITSRanker {
                 String title = parts[1];
                 titleToId.put(title, nodeID);
                 idToTitle.put(nodeID, title);
+                if (nodeOf.putIfAbsent(nodeID, n) == null) n++;
             }
         } catch (IOException e) {
             System.err.println("Error reading titles file: " + e.getMessage());
         }
 
-        // read links
-        outLinks.clear();
-        inLinks.clear();
+        // read links as pairs of nodes
+        int[] from = new int[1024];
+        int[] to = new int[1024];
+        int links = 0;
         try (BufferedReader br = new BufferedReader(new FileReader(linksFilename))) {
             String line;
             while ((line = br.readLine()) != null) {
@@ -139,114 +227,355 @@ public class HITSRanker {
                 String[] parts = line.split(";", 2);
                 if (parts.length < 2) continue;
                 int nodeID = Integer.parseInt(parts[0]);
-                String[] outlinks = parts[1].split(",");
-
-                List<Integer> outList = new ArrayList<>();
-                for (String outStr : outlinks) {
+                if (nodeOf.putIfAbsent(nodeID, n) == null) n++;
+                int node = nodeOf.get(nodeID);
+                for (String outStr : parts[1].split(",")) {
                     outStr = outStr.trim();
                     if (outStr.isEmpty()) continue;
                     try {
-                        int outNode = Integer.parseInt(outStr);
-                        outList.add(outNode);
-                        inLinks.computeIfAbsent(outNode, k -> new ArrayList<>()).add(nodeID);
+                        int outNodeID = Integer.parseInt(outStr);
+                        if (nodeOf.putIfAbsent(outNodeID, n) == null) n++;
+                        if (links == from.length) {
+                            from = Arrays.copyOf(from, 2 * links);
+                            to = Arrays.copyOf(to, 2 * links);
+                        }
+                        from[links] = node;
+                        to[links] = nodeOf.get(outNodeID);
+                        links++;
                     } catch (NumberFormatException e) {
                     }
                 }
-                outLinks.put(nodeID, outList);
             }
         } catch (IOException e) {
             System.err.println("Error reading links file: " + e.getMessage());
         }
+
+        nodeIDs = new int[n];
+        titles = new String[n];
+        for (Map.Entry<Integer,Integer> entry : nodeOf.entrySet()) {
+            nodeIDs[entry.getValue()] = entry.getKey();
+            titles[entry.getValue()] = idToTitle.get(entry.getKey());
+        }
+        outOffsets = new int[n + 1];
+        outTargets = new int[links];
+        inOffsets = new int[n + 1];
+        inTargets = new int[links];
+        toRows(from, to, links, outOffsets, outTargets);
+        toRows(to, from, links, inOffsets, inTargets);
+        local = new int[n];
+        Arrays.fill(local, -1);
+    }
+
+
+    /**
+     * Sorts the links by their first node into compressed sparse rows, the
+     * links of a node keep the order they were read in.
+     */
+    private static void toRows( int[] from, int[] to, int links, int[] offsets, int[] targets ) {
+        for (int i = 0; i < links; i++) {
+            offsets[from[i] + 1]++;
+        }
+        for (int i = 1; i < offsets.length; i++) {
+            offsets[i] += offsets[i - 1];
+        }
+        int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+        for (int i = 0; i < links; i++) {
+            targets[next[from[i]]++] = to[i];
+        }
+    }
+
+    /**
+     * Maps the docIDs of the index to nodes of the graph and back, by the
+     * file name of the document. The mapping of a persistent index is
+     * read from the index directory the first time, if it was made for
+     * the same documents and graph, and it is written there whenever it
+     * is made. It is made again when the index has changed.
+     *
+     * @param      rebuild  Make the mapping even if the index hasn't changed
+     */
+    void mapDocuments(boolean rebuild) {
+        long generation = index.generation();
+        if (!rebuild && generation == mappingGeneration) return;
+        boolean persistent = index instanceof PersistentHashedIndex;
+        String fname = PersistentHashedIndex.INDEXDIR + "/" + MAPPING_FNAME;
+        if (rebuild || mappingGeneration >= 0 || !persistent || !readMapping(fname)) {
+            makeMapping();
+            if (persistent) writeMapping(fname);
+        }
+        mappingGeneration = generation;
+    }
+
+
+    /**
+     * Maps every document that isn't deleted to the node with its file
+     * name as title. A node with several documents is mapped to the
+     * first of them.
+     */
+    private void makeMapping() {
+        int maxDocID = -1;
+        for (int docID : index.docNames.keySet()) {
+            maxDocID = Math.max(maxDocID, docID);
+        }
+        nodeOfDoc = new int[maxDocID + 1];
+        Arrays.fill(nodeOfDoc, -1);
+        for (Map.Entry<Integer,String> entry : index.docNames.entrySet()) {
+            if (index.isDeleted(entry.getKey())) continue;
+            Integer nodeID = titleToId.get(getFileName(entry.getValue()));
+            if (nodeID != null) {
+                nodeOfDoc[entry.getKey()] = nodeOf.get(nodeID);
+            }
+        }
+        mapNodes();
+    }
+
+
+    /**
+     * Fills docOfNode from nodeOfDoc.
+     */
+    private void mapNodes() {
+        docOfNode = new int[nodeIDs.length];
+        Arrays.fill(docOfNode, -1);
+        for (int docID = nodeOfDoc.length - 1; docID >= 0; docID--) {
+            if (nodeOfDoc[docID] >= 0) docOfNode[nodeOfDoc[docID]] = docID;
+        }
+    }
+
+
+    /**
+     * Returns a hash of the document table: the docID, file name and
+     * deletion of every document. A full index of the same files in
+     * another order gives another hash, even with the same number of
+     * documents.
+     */
+    private long documentsHash() {
+        int[] docIDs = new int[index.docNames.size()];
+        int i = 0;
+        for (int docID : index.docNames.keySet()) {
+            docIDs[i++] = docID;
+        }
+        Arrays.sort(docIDs);
+        long hash = 17;
+        for (int docID : docIDs) {
+            hash = 31 * hash + docID;
+            hash = 31 * hash + index.docNames.get(docID).hashCode();
+            hash = 31 * hash + (index.isDeleted(docID) ? 1 : 0);
+        }
+        return hash;
+    }
+
+
+    /**
+     * Reads the mapping, which starts with the number of documents and
+     * nodes and the hash of the documents it was made for. Returns false
+     * if there is no file or it is for other documents or another graph.
+     */
+    private boolean readMapping(String fname) {
+        File file = new File(fname);
+        if (!file.exists()) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != index.docNames.size() || in.readInt() != nodeIDs.length
+                || in.readLong() != documentsHash()) {
+                return false;
+            }
+            int[] mapping = new int[in.readInt()];
+            for (int docID = 0; docID < mapping.length; docID++) {
+                mapping[docID] = in.readInt();
+                if (mapping[docID] >= nodeIDs.length) return false;
+            }
+            nodeOfDoc = mapping;
+        } catch (IOException e) {
+            System.err.println("Error reading HITS node mapping: " + e.getMessage());
+            return false;
+        }
+        mapNodes();
+        return true;
     }
 
+
+    /**
+     * Writes the mapping.
+     */
+    private void writeMapping(String fname) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fname)))) {
+            out.writeInt(index.docNames.size());
+            out.writeInt(nodeIDs.length);
+            out.writeLong(documentsHash());
+            out.writeInt(nodeOfDoc.length);
+            for (int node : nodeOfDoc) {
+                out.writeInt(node);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+
     /**
      * Perform HITS iterations until convergence
      *
-     * @param      titles  The titles of the documents in the root set
+     * @param      base  The nodes of the base set, without duplicates
      */
-    private void iterate(String[] titles, boolean titlesIsBaseSet) {
+    private void iterate(int[] base) {
         //
         // YOUR CODE HERE
         //
-        Set<Integer> baseSet = new HashSet<>();
-
-        for (String title : titles) {
-            Integer nodeID = titleToId.get(title);
-            if (nodeID != null) {
-                baseSet.add(nodeID);
-            }
+        int n = base.length;
+        for (int i = 0; i < n; i++) {
+            local[base[i]] = i;
         }
 
-        if (!titlesIsBaseSet) {
-            baseSet.addAll(outLinks.keySet());
-            baseSet.addAll(inLinks.keySet());
+        // the links between nodes of the base set, by position in the base set
+        int[] localOutOffsets = new int[n + 1];
+        int[] localInOffsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            localOutOffsets[i + 1] = localOutOffsets[i] + countLocal(outOffsets, outTargets, base[i]);
+            localInOffsets[i + 1] = localInOffsets[i] + countLocal(inOffsets, inTargets, base[i]);
+        }
+        int[] localOutTargets = new int[localOutOffsets[n]];
+        int[] localInTargets = new int[localInOffsets[n]];
+        for (int i = 0; i < n; i++) {
+            copyLocal(outOffsets, outTargets, base[i], localOutTargets, localOutOffsets[i]);
+            copyLocal(inOffsets, inTargets, base[i], localInTargets, localInOffsets[i]);
         }
+        for (int i = 0; i < n; i++) {
+            local[base[i]] = -1;
+        }
+        baseLinks = localOutOffsets[n];
 
         // initialize
-        hubs = new HashMap<>();
-        authorities = new HashMap<>();
-        for (int node : baseSet) {
-            hubs.put(node, 1.0);
-            authorities.put(node, 1.0);
-        }
+        double[] hub = new double[n];
+        double[] auth = new double[n];
+        double[] newHub = new double[n];
+        double[] newAuth = new double[n];
+        Arrays.fill(hub, 1.0);
+        Arrays.fill(auth, 1.0);
 
         int steps = 0;
         double maxDelta;
+        long deadline = timeBudget > 0 ? System.nanoTime() + timeBudget * 1000000 : Long.MAX_VALUE;
+        boolean outOfTime = false;
 
         do {
-            HashMap<Integer, Double> newAuthorities = new HashMap<>();
-            // update authority score
-            for (int node : baseSet) {
-                double auth = 0.0;
-                for (int inNode : inLinks.getOrDefault(node, Collections.emptyList())) {
-                    auth += hubs.getOrDefault(inNode, 0.0);
+            // update authority and hub scores
+            double authSum = 0.0, hubSum = 0.0;
+            for (int i = 0; i < n; i++) {
+                double a = 0.0;
+                for (int j = localInOffsets[i]; j < localInOffsets[i + 1]; j++) {
+                    a += hub[localInTargets[j]];
                 }
-                newAuthorities.put(node, auth);
-            }
-
-            HashMap<Integer, Double> newHubs = new HashMap<>();
-            // update hub score
-            for (int node : baseSet) {
-                double hub = 0.0;
-                for (int outNode : outLinks.getOrDefault(node, Collections.emptyList())) {
-                    hub += authorities.getOrDefault(outNode, 0.0);
+                newAuth[i] = a;
+                authSum += a * a;
+                double h = 0.0;
+                for (int j = localOutOffsets[i]; j < localOutOffsets[i + 1]; j++) {
+                    h += auth[localOutTargets[j]];
                 }
-                newHubs.put(node, hub);
+                newHub[i] = h;
+                hubSum += h * h;
             }
 
-            // normalizing
-            double authNorm = computeNorm(newAuthorities);
-            for (int node : newAuthorities.keySet()) {
-                newAuthorities.put(node, newAuthorities.get(node) / authNorm);
+            // normalizing, and convergence criterion
+            double authNorm = authSum == 0.0 ? 1.0 : Math.sqrt(authSum);
+            double hubNorm = hubSum == 0.0 ? 1.0 : Math.sqrt(hubSum);
+            maxDelta = 0.0;
+            for (int i = 0; i < n; i++) {
+                newAuth[i] /= authNorm;
+                newHub[i] /= hubNorm;
+                maxDelta = Math.max(maxDelta, Math.max(Math.abs(newAuth[i] - auth[i]), Math.abs(newHub[i] - hub[i])));
             }
 
-            double hubNorm = computeNorm(newHubs);
-            for (int node : newHubs.keySet()) {
-                newHubs.put(node, newHubs.get(node) / hubNorm);
-            }
+            double[] swap = auth;
+            auth = newAuth;
+            newAuth = swap;
+            swap = hub;
+            hub = newHub;
+            newHub = swap;
 
-            // convergence critereon
-            maxDelta = 0.0;
-            for (int node : baseSet) {
-                double authDelta = Math.abs(newAuthorities.get(node) - authorities.get(node));
-                double hubDelta = Math.abs(newHubs.get(node) - hubs.get(node));
-                maxDelta = Math.max(maxDelta, Math.max(authDelta, hubDelta));
+            steps++;
+            outOfTime = System.nanoTime() > deadline;
+        } while (steps < maxIterations && maxDelta > EPSILON && !outOfTime);
+
+        stopReason = maxDelta <= EPSILON ? "converged" : outOfTime ? "out of time" : "iteration limit";
+
+        baseNodes = base;
+        hubs = hub;
+        authorities = auth;
+        iterations = steps;
+    }
+
+
+    /** Returns the number of links of a node to nodes of the base set. */
+    private int countLocal( int[] offsets, int[] targets, int node ) {
+        int count = 0;
+        for (int j = offsets[node]; j < offsets[node + 1]; j++) {
+            if (local[targets[j]] >= 0) count++;
+        }
+        return count;
+    }
+
+
+    /** Copies the links of a node to nodes of the base set, as positions in the base set. */
+    private void copyLocal( int[] offsets, int[] targets, int node, int[] localTargets, int start ) {
+        for (int j = offsets[node]; j < offsets[node + 1]; j++) {
+            if (local[targets[j]] >= 0) localTargets[start++] = local[targets[j]];
+        }
+    }
+
+
+    /**
+     * Returns the base set of a root set: the root nodes and the nodes
+     * they link to or are linked from, as far as they have titles. At
+     * most <code>maxInLinks</code> of the nodes linking to a root node
+     * are added.
+     *
+     * @param      root  The nodes of the root set
+     */
+    int[] baseSet(int[] root) {
+        int[] base = new int[Math.max(16, root.length)];
+        int n = 0;
+        for (int node : root) {
+            n = addToBase(node, base, n);
+        }
+        rootSize = n;
+        for (int i = 0; i < rootSize; i++) {
+            int node = base[i];
+            for (int j = outOffsets[node]; j < outOffsets[node + 1]; j++) {
+                if (n == base.length) base = Arrays.copyOf(base, 2 * n);
+                n = addToBase(outTargets[j], base, n);
+            }
+            // pages with many in-links get an evenly spaced sample of them
+            int inDegree = inOffsets[node + 1] - inOffsets[node];
+            int sample = maxInLinks > 0 ? Math.min(maxInLinks, inDegree) : inDegree;
+            for (int k = 0; k < sample; k++) {
+                if (n == base.length) base = Arrays.copyOf(base, 2 * n);
+                n = addToBase(inTargets[inOffsets[node] + (int) ((long) k * inDegree / sample)], base, n);
             }
+        }
+        // local is used to mark the nodes that have been added
+        for (int i = 0; i < n; i++) {
+            local[base[i]] = -1;
+        }
+        return Arrays.copyOf(base, n);
+    }
 
-            authorities = newAuthorities;
-            hubs = newHubs;
 
-            steps++;
-        } while (steps < MAX_NUMBER_OF_STEPS && maxDelta > EPSILON);
+    /** Adds a node with a title to the base set unless it is there already. */
+    private int addToBase(int node, int[] base, int n) {
+        if (titles[node] == null || local[node] >= 0) return n;
+        local[node] = n;
+        base[n] = node;
+        return n + 1;
     }
 
-    private double computeNorm(HashMap<Integer, Double> vector) {
-        double sum = 0.0;
-        for (double val : vector.values()) {
-            sum += val * val;
+
+    /**
+     * Returns the scores of the last computation by nodeID.
+     */
+    private HashMap<Integer,Double> byNodeID(double[] scores) {
+        HashMap<Integer,Double> map = new HashMap<Integer,Double>();
+        for (int i = 0; i < baseNodes.length; i++) {
+            map.put(nodeIDs[baseNodes[i]], scores[i]);
         }
-        double norm = Math.sqrt(sum);
-        return norm == 0.0 ? 1.0 : norm;
+        return map;
     }
 
 
@@ -262,65 +591,48 @@ public class HITSRanker {
         //
         // YOUR CODE HERE
         //
+        rootSize = 0;
+        baseNodes = new int[0];
+        baseLinks = 0;
+        iterations = 0;
+        stopReason = "empty root set";
+        lastTime = 0;
         if (post == null || post.size() == 0) {
             return new PostingsList();
         }
     
-        // root set nodeIDs from the post's docIDs
-        Set<Integer> rootSet = new HashSet<>();
+        // root set nodes from the post's docIDs
+        mapDocuments(false);
+        int[] root = new int[post.size()];
+        int n = 0;
         for (int j = 0; j < post.size(); j++) {
-            PostingsEntry entry = post.get(j);
-            int docID = entry.docID;
-            String docName = index.docNames.get(docID);
-            Integer nodeID = titleToId.get(getFileName(docName));
-            if (nodeID != null) {
-                rootSet.add(nodeID);
+            int docID = post.get(j).docID;
+            if (docID < nodeOfDoc.length && nodeOfDoc[docID] >= 0) {
+                root[n++] = nodeOfDoc[docID];
             }
         }
     
-        if (rootSet.isEmpty()) {
+        if (n == 0) {
             return new PostingsList();
         }
     
-        // get base set by adding inlinks and outlinks of root set, not needed
-        Set<Integer> baseSet = new HashSet<>(rootSet);
-        for (int node : rootSet) {
-            baseSet.addAll(outLinks.getOrDefault(node, Collections.emptyList()));
-            baseSet.addAll(inLinks.getOrDefault(node, Collections.emptyList()));
-        }
-    
-        // titles array for iterate method
-        String[] titles = new String[baseSet.size()];
-        int i = 0;
-        for (int nodeID : baseSet) {
-            String title = idToTitle.get(nodeID);
-            if (title != null) {
-                titles[i++] = title;
-            }
-        }
-        titles = Arrays.copyOf(titles, i); // trim nulls
-    
-        iterate(titles, true);
+        // get base set by adding inlinks and outlinks of root set
+        long start = System.nanoTime();
+        iterate(baseSet(Arrays.copyOf(root, n)));
+        lastTime = (System.nanoTime() - start) / 1e6;
     
         PostingsList results = new PostingsList();
-        for (int nodeID : baseSet) {
-            String title = idToTitle.get(nodeID);
-            if (title == null) continue;
-    
-            // find docID in the index that corresponds to this title
-            for (Map.Entry<Integer, String> entry : index.docNames.entrySet()) {
-                if (entry.getValue().endsWith(title)) {
-                    double hubScore = hubs.getOrDefault(nodeID, 0.0);
-                    double authScore = authorities.getOrDefault(nodeID, 0.0);
-                    double combinedScore = ALPHA * hubScore + (1-ALPHA) * authScore;
-                    //double combinedScore = (5 * hubScore) * (5 * authScore);
-
-                    PostingsEntry pe = new PostingsEntry(entry.getKey());
-                    pe.setScore(combinedScore);
-                    results.add(pe);
-                    break;
-                }
-            }
+        for (int i = 0; i < baseNodes.length; i++) {
+            int docID = docOfNode[baseNodes[i]];
+            if (docID < 0) continue;
+            double hubScore = hubs[i];
+            double authScore = authorities[i];
+            double combinedScore = ALPHA * hubScore + (1-ALPHA) * authScore;
+            //double combinedScore = (5 * hubScore) * (5 * authScore);
+
+            PostingsEntry pe = new PostingsEntry(docID);
+            pe.setScore(combinedScore);
+            results.add(pe);
         }
 
         results.sort();
@@ -328,6 +640,15 @@ public class HITSRanker {
     }
 
 
+    /**
+     * Returns the sizes, the number of iterations and the time of the last query.
+     */
+    String stats() {
+        return String.format("HITS: root set %d, base set %d with %d links, %d iterations (%s), %.1f ms",
+                             rootSize, baseNodes.length, baseLinks, iterations, stopReason, lastTime);
+    }
+
+
     /**
      * Sort a hash map by values in the descending order
      *
@@ -386,9 +707,13 @@ public class HITSRanker {
      *  authorities_top_30.txt with documents containing top 30 authority scores
      */
     void rank() {
-        iterate(titleToId.keySet().toArray(new String[0]), false);
-        HashMap<Integer,Double> sortedHubs = sortHashMapByValue(hubs);
-        HashMap<Integer,Double> sortedAuthorities = sortHashMapByValue(authorities);
+        int[] all = new int[nodeIDs.length];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        iterate(all);
+        HashMap<Integer,Double> sortedHubs = sortHashMapByValue(byNodeID(hubs));
+        HashMap<Integer,Double> sortedAuthorities = sortHashMapByValue(byNodeID(authorities));
         writeToFile(sortedHubs, "hubs_top_30.txt", 30);
         writeToFile(sortedAuthorities, "authorities_top_30.txt", 30);
     }
@@ -397,13 +722,56 @@ public class HITSRanker {
     /* --------------------------------------------- */
 
 
+    /**
+     * Times HITS on random root sets of growing size, and prints the mean
+     * time, base set size and number of iterations for each size.
+     */
+    void benchmark() {
+        int[] titled = new int[nodeIDs.length];
+        int n = 0;
+        for (int node = 0; node < nodeIDs.length; node++) {
+            if (titles[node] != null) titled[n++] = node;
+        }
+        Random random = new Random(1);
+        final int runs = 20;
+        for (int size = 10; size / 2 < n; size *= 4) {
+            int rootSize = Math.min(size, n);
+            long time = 0, baseSize = 0, steps = 0;
+            for (int run = -runs; run < runs; run++) {
+                // a partial shuffle picks the root set
+                for (int i = 0; i < rootSize; i++) {
+                    int j = i + random.nextInt(n - i);
+                    int node = titled[i];
+                    titled[i] = titled[j];
+                    titled[j] = node;
+                }
+                long start = System.nanoTime();
+                iterate(baseSet(Arrays.copyOf(titled, rootSize)));
+                // the first runs warm up the JIT
+                if (run >= 0) {
+                    time += System.nanoTime() - start;
+                    baseSize += baseNodes.length;
+                    steps += iterations;
+                }
+            }
+            System.out.println(String.format("root set %6d: base set %6d, %4d iterations, %8.3f ms",
+                                             rootSize, baseSize / runs, steps / runs, time / 1e6 / runs));
+        }
+    }
+
+
+    /* --------------------------------------------- */
+
+
     public static void main( String[] args ) {
-        if ( args.length != 2 ) {
-            System.err.println( "Please give the names of the link and title files" );
+        if ( args.length == 3 && "-bench".equals( args[0] )) {
+            new HITSRanker( args[1], args[2], null ).benchmark();
+        } else if ( args.length != 2 ) {
+            System.err.println( "Please give the names of the link and title files, optionally after -bench" );
         }
         else {
             HITSRanker hr = new HITSRanker( args[0], args[1], null );
             hr.rank();
         }
     }
-} 
\ No newline at end of file
+}
@@ -9,7 +9,9 @@
 package ir;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 
 
 /**
@@ -21,6 +23,9 @@ public class HashedIndex implements Index {
     /** The index as a hashtable. */
     private HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
 
+    /** Number of changes to the index, see <code>generation</code>. */
+    private long generation = 0;
+
 
     /**
      *  Inserts this token in the hashtable.
@@ -29,6 +34,7 @@ public class HashedIndex implements Index {
         //
         // YOUR CODE HERE
         //
+        generation++;
         PostingsList postingsList = getPostings(token);
 
         if (postingsList == null) {
@@ -58,6 +64,39 @@ public class HashedIndex implements Index {
     }
 
 
+    /**
+     *  Returns all terms in the index.
+     */
+    public Set<String> terms() {
+        return new HashSet<String>(index.keySet());
+    }
+
+
+    /**
+     *  Returns the number of documents containing the token.
+     */
+    public int docFrequency( String token ) {
+        PostingsList postingsList = index.get(token);
+        return postingsList == null ? 0 : postingsList.size();
+    }
+
+
+    /**
+     *  Documents are never deleted from a HashedIndex.
+     */
+    public boolean isDeleted( int docID ) {
+        return false;
+    }
+
+
+    /**
+     *  Returns the number of tokens inserted so far.
+     */
+    public long generation() {
+        return generation;
+    }
+
+
     /**
      *  No need for cleanup in a HashedIndex.
      */
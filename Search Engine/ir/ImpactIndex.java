@@ -0,0 +1,222 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+
+
+/**
+ *   An impact-ordered copy of the index for score-at-a-time retrieval.
+ *
+ *   The impact of a posting is its tf * idf / length, quantized to one
+ *   of LEVELS levels. The postings of each term are grouped into
+ *   segments of equal impact, highest impact first, with the docIDs of
+ *   a segment in increasing order. There is one layout per normalization
+ *   type.
+ */
+public class ImpactIndex implements Serializable {
+
+    /** Number of impact levels. */
+    static final int LEVELS = 255;
+
+    /** Number of documents when the layout was built. */
+    int docCount;
+
+    /** The tf-idf score of one impact level, for each normalization type. */
+    double[] scale;
+
+    /** The segments of each term, for each normalization type. */
+    HashMap<String,ImpactPostings[]> postings = new HashMap<String,ImpactPostings[]>();
+
+
+    /**
+     *  The postings of one term, grouped by impact.
+     */
+    static class ImpactPostings implements Serializable {
+        /** The impact of each segment, in decreasing order. */
+        int[] impacts;
+
+        /** The docIDs of each segment, in increasing order. */
+        int[][] docIDs;
+    }
+
+
+    /**
+     *  Builds the layout from the postings of all terms in the index.
+     */
+    public static ImpactIndex build( Index index ) {
+        NormalizationType[] types = NormalizationType.values();
+        int N = index.docNames.size();
+        ImpactIndex impactIndex = new ImpactIndex();
+        impactIndex.docCount = N;
+        Set<String> terms = index.terms();
+
+        // the largest tf-idf decides the size of a level
+        double[] max = new double[types.length];
+        for (String term : terms) {
+            ScoreBounds bounds = index.scoreBounds.get(term);
+            if (bounds == null || bounds.df != index.docFrequency(term)) {
+                // the bounds are missing or out of date
+                PostingsList list = index.getPostings(term);
+                if (list == null || list.size() == 0) continue;
+                bounds = ScoreBounds.of(list, index);
+                index.scoreBounds.put(term, bounds);
+            }
+            if (bounds.df == 0) continue;
+            double idf = Math.log((double) N / bounds.df);
+            for (int t = 0; t < types.length; t++) {
+                max[t] = Math.max(max[t], bounds.maxRatio[t] * idf);
+            }
+        }
+        impactIndex.scale = new double[types.length];
+        for (int t = 0; t < types.length; t++) {
+            impactIndex.scale[t] = max[t] > 0 ? max[t] / LEVELS : 1;
+        }
+
+        for (String term : terms) {
+            PostingsList list = index.getPostings(term);
+            if (list == null || list.size() == 0) continue;
+            double idf = Math.log((double) N / list.size());
+            ImpactPostings[] layouts = new ImpactPostings[types.length];
+            for (NormalizationType normType : types) {
+                int t = normType.ordinal();
+                ArrayList<ArrayList<Integer>> levels = new ArrayList<ArrayList<Integer>>();
+                for (int level = 0; level <= LEVELS; level++) {
+                    levels.add(null);
+                }
+                for (int i = 0; i < list.size(); i++) {
+                    PostingsEntry entry = list.get(i);
+                    double length;
+                    if (normType == NormalizationType.EUCLIDEAN) {
+                        length = index.euclideanLengths.getOrDefault(entry.docID, 0.0);
+                    } else {
+                        length = index.docLengths.getOrDefault(entry.docID, 0);
+                    }
+                    if (length == 0 || idf <= 0) continue;
+                    int level = (int) Math.min(LEVELS, Math.max(1, Math.round(entry.score * idf / length / impactIndex.scale[t])));
+                    if (levels.get(level) == null) levels.set(level, new ArrayList<Integer>());
+                    levels.get(level).add(entry.docID);
+                }
+                ImpactPostings layout = new ImpactPostings();
+                ArrayList<Integer> impacts = new ArrayList<Integer>();
+                ArrayList<int[]> docIDs = new ArrayList<int[]>();
+                for (int level = LEVELS; level > 0; level--) {
+                    if (levels.get(level) == null) continue;
+                    impacts.add(level);
+                    docIDs.add(levels.get(level).stream().mapToInt(Integer::intValue).toArray());
+                }
+                layout.impacts = impacts.stream().mapToInt(Integer::intValue).toArray();
+                layout.docIDs = docIDs.toArray(new int[0][]);
+                layouts[t] = layout;
+            }
+            impactIndex.postings.put(term, layouts);
+        }
+        return impactIndex;
+    }
+
+
+    /**
+     *  Returns the segments of a term for a normalization type, or null
+     *  if the term is not in the index.
+     */
+    public ImpactPostings getPostings( String term, NormalizationType normType ) {
+        ImpactPostings[] layouts = postings.get(term);
+        return layouts == null ? null : layouts[normType.ordinal()];
+    }
+
+
+    /**
+     *  Returns true if every term of the query that is in the index has a
+     *  layout, so that the query can be evaluated score-at-a-time. A
+     *  layout built before terms were added doesn't have them.
+     */
+    public boolean covers( Query query, Index index ) {
+        for (Query.QueryTerm queryTerm : query.queryterm) {
+            if (!postings.containsKey(queryTerm.term) && index.docFrequency(queryTerm.term) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     *  Accumulates the scores of a query score-at-a-time. The segments of
+     *  all terms are processed in decreasing order of their contribution,
+     *  and processing stops after <code>budget</code> postings, so the
+     *  best documents tend to be scored first.
+     *  @return The number of postings that were processed.
+     */
+    public long evaluate( Query query, NormalizationType normType, Index index, ScoreAccumulator scores, long budget ) {
+        int t = normType.ordinal();
+        // one row per segment: term number, segment number
+        ArrayList<int[]> segments = new ArrayList<int[]>();
+        ArrayList<ImpactPostings> layouts = new ArrayList<ImpactPostings>();
+        for (int i = 0; i < query.queryterm.size(); i++) {
+            ImpactPostings layout = getPostings(query.queryterm.get(i).term, normType);
+            layouts.add(layout);
+            if (layout == null) continue;
+            for (int s = 0; s < layout.impacts.length; s++) {
+                segments.add(new int[] { i, s });
+            }
+        }
+        double[] contribution = new double[segments.size()];
+        Integer[] order = new Integer[segments.size()];
+        for (int j = 0; j < segments.size(); j++) {
+            int[] segment = segments.get(j);
+            contribution[j] = query.queryterm.get(segment[0]).weight * layouts.get(segment[0]).impacts[segment[1]] * scale[t];
+            order[j] = j;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(contribution[b], contribution[a]));
+
+        long processed = 0;
+        for (int j : order) {
+            int[] docIDs = layouts.get(segments.get(j)[0]).docIDs[segments.get(j)[1]];
+            for (int docID : docIDs) {
+                if (processed >= budget) return processed;
+                processed++;
+                if (!index.isDeleted(docID)) {
+                    scores.add(docID, contribution[j]);
+                }
+            }
+        }
+        return processed;
+    }
+
+
+    /**
+     *  Writes the layout to a file.
+     */
+    public void write( String filename ) {
+        try (ObjectOutputStream oos = new ObjectOutputStream(
+            new BufferedOutputStream( new FileOutputStream( filename )))) {
+            oos.writeObject( this );
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     *  Reads a layout written by <code>write</code>, or returns null if
+     *  there is none.
+     */
+    public static ImpactIndex read( String filename ) {
+        File file = new File( filename );
+        if (!file.exists()) return null;
+        try (ObjectInputStream ois = new ObjectInputStream(
+            new BufferedInputStream( new FileInputStream( file )))) {
+            return (ImpactIndex) ois.readObject();
+        } catch ( ClassNotFoundException | IOException e ) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
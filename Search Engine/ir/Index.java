@@ -9,6 +9,7 @@ package ir;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Set;
 
 /**
  *  Defines some common data structures and methods that all types of
@@ -24,12 +25,33 @@ public interface Index {
 
     public HashMap<Integer,Double> euclideanLengths = new HashMap<Integer,Double>();
 
+    /** Mapping from document identifier to the modification time of the file when it was indexed. */
+    public HashMap<Integer,Long> docModified = new HashMap<Integer,Long>();
+
+    /** Mapping from document identifier to a hash of the file contents when it was indexed. */
+    public HashMap<Integer,String> docHashes = new HashMap<Integer,String>();
+
+    /** Mapping from terms to upper bounds on their scores, for pruning ranked queries. */
+    public HashMap<String,ScoreBounds> scoreBounds = new HashMap<String,ScoreBounds>();
+
     /** Inserts a token into the index. */
     public void insert( String token, int docID, int offset );
 
     /** Returns the postings for a given term. */
     public PostingsList getPostings( String token );
 
+    /** Returns all terms in the index. */
+    public Set<String> terms();
+
+    /** Returns the number of documents containing a token, without reading the postings if possible. */
+    public int docFrequency( String token );
+
+    /** Returns true if the document has been deleted and should be skipped by searches. */
+    public boolean isDeleted( int docID );
+
+    /** Returns a number that changes whenever the indexed documents change. */
+    public long generation();
+
     /** This method is called on exit. */
     public void cleanup();
 
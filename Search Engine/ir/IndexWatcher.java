@@ -0,0 +1,200 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+package ir;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+
+/**
+ *   Watches the indexed directories and indexes new, changed and removed
+ *   files while the engine is running.
+ *
+ *   Changes arriving within a short window are indexed as one batch into
+ *   the main-memory segment of the persistent index, where they are
+ *   searchable as soon as the batch is done. The main-memory segment is
+ *   written to disk as an ordinary segment every now and then.
+ */
+public class IndexWatcher implements Runnable {
+
+    /** Changes arriving within this many milliseconds are indexed as one batch. */
+    static final long BATCH_WINDOW = 1000;
+
+    /** The main-memory segment is written to disk this often (in milliseconds). */
+    static final long FLUSH_INTERVAL = 60000;
+
+    /** The engine whose index is kept up to date. */
+    Engine engine;
+
+    /** The watch service for all indexed directories. */
+    WatchService watchService;
+
+    /** Mapping from watch keys to the directories they watch. */
+    HashMap<WatchKey,Path> directories = new HashMap<WatchKey,Path>();
+
+    /** Time of the last flush to disk. */
+    long lastFlush = System.currentTimeMillis();
+
+    /** True if there are changes that haven't been flushed to disk. */
+    boolean unflushed = false;
+
+    /*
+     *   Visibility lag, from the time a file was written until it is
+     *   searchable (in milliseconds).
+     */
+    long lagCount = 0;
+    long lagTotal = 0;
+    long lagMax = 0;
+    long lagLast = 0;
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Constructor. Registers all indexed directories and makes the indexer
+     *  continue in incremental mode.
+     */
+    public IndexWatcher( Engine engine ) {
+        this.engine = engine;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            for (String dirName : engine.dirNames) {
+                register(Paths.get(dirName));
+            }
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+        synchronized ( engine.indexLock ) {
+            engine.indexer.startIndexing( true );
+        }
+        // documents that are only in main memory would be lost on exit
+        Runtime.getRuntime().addShutdownHook( new Thread( this::flush ));
+    }
+
+
+    /**
+     *  Registers a directory and all its subdirectories with the watch service.
+     */
+    private void register( Path dir ) throws IOException {
+        Files.walk(dir).filter(Files::isDirectory).forEach(d -> {
+            try {
+                directories.put(d.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), d);
+            } catch ( IOException e ) {
+                System.err.println( "Cannot watch " + d + ": " + e.getMessage() );
+            }
+        });
+    }
+
+
+    /**
+     *  Collects changes into batches and indexes them, until the engine exits.
+     */
+    public void run() {
+        if (watchService == null) return;
+        System.err.println( "Watching " + directories.size() + " directories for changes" );
+        LinkedHashSet<Path> batch = new LinkedHashSet<Path>();
+        long batchStart = 0;
+        try {
+            while (true) {
+                long timeout = batch.isEmpty() ? FLUSH_INTERVAL : Math.max(1, batchStart + BATCH_WINDOW - System.currentTimeMillis());
+                WatchKey key = watchService.poll(timeout, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    if (batch.isEmpty()) batchStart = System.currentTimeMillis();
+                    collect(key, batch);
+                }
+                if (!batch.isEmpty() && System.currentTimeMillis() >= batchStart + BATCH_WINDOW) {
+                    indexBatch(batch);
+                    batch.clear();
+                }
+                if (System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL) {
+                    flush();
+                }
+            }
+        } catch ( InterruptedException e ) {
+            flush();
+        }
+    }
+
+
+    /**
+     *  Adds the paths of the events of a watch key to the batch.
+     */
+    private void collect( WatchKey key, Set<Path> batch ) {
+        Path dir = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || dir == null) continue;
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    register(path);
+                } catch ( IOException e ) {
+                    System.err.println( "Cannot watch " + path + ": " + e.getMessage() );
+                }
+            }
+            batch.add(path);
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+
+    /**
+     *  Indexes a batch of changed paths into the main-memory segment.
+     */
+    private void indexBatch( Set<Path> batch ) {
+        ArrayList<File> files = new ArrayList<File>();
+        for (Path path : batch) {
+            files.add(path.toFile());
+        }
+        synchronized ( engine.indexLock ) {
+            engine.indexer.processChanges( files );
+            // the lengths file is rewritten for all documents, so only on flush
+            engine.indexer.computeEuclideanLengths();
+            unflushed = true;
+        }
+        long searchable = System.currentTimeMillis();
+        for (File f : files) {
+            if (!f.isFile()) continue;
+            lagLast = Math.max(0, searchable - f.lastModified());
+            lagMax = Math.max(lagMax, lagLast);
+            lagTotal += lagLast;
+            lagCount++;
+        }
+        System.err.println( "Indexed " + files.size() + " changed path(s). " + getLagStats() );
+    }
+
+
+    /**
+     *  Writes the main-memory segment to disk, with the Euclidean lengths
+     *  and the score bounds.
+     */
+    void flush() {
+        synchronized ( engine.indexLock ) {
+            if (unflushed) {
+                engine.index.cleanup();
+                engine.indexer.writeEuclideanLengths( "./index/euclidean_lengths.txt" );
+                engine.indexer.writeScoreBounds( "./index/score_bounds" );
+                if (engine.kgIndex != null) engine.kgIndex.writeKGramIndex();
+                unflushed = false;
+            }
+        }
+        lastFlush = System.currentTimeMillis();
+    }
+
+
+    /**
+     *  Returns the visibility lag statistics as a string.
+     */
+    public String getLagStats() {
+        return String.format( "Visibility lag: last %d ms, mean %.1f ms, max %d ms over %d file(s)", 
+            lagLast, lagCount == 0 ? 0.0 : (double) lagTotal / lagCount, lagMax, lagCount );
+    }
+}
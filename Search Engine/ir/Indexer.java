@@ -10,6 +10,9 @@ package ir;
 import java.io.*;
 import java.util.*;
 import java.nio.charset.*;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 
 /**
@@ -32,6 +35,15 @@ public class Indexer {
     private HashMap<Integer, HashMap<String, Integer>> docTermFrequencies = new HashMap<>();
     private HashMap<String, Integer> docFrequencies = new HashMap<>();
 
+    /** If true, only new and changed files are indexed into a new segment. */
+    private boolean incremental = false;
+
+    /** Mapping from file paths to the docIDs they had before this run (incremental mode). */
+    private HashMap<String, Integer> previousDocIDs = new HashMap<>();
+
+    /** Paths of the files found during this run (incremental mode). */
+    private HashSet<String> seenPaths = new HashSet<>();
+
 
     /* ----------------------------------------------- */
 
@@ -50,6 +62,130 @@ public class Indexer {
     }
 
 
+    /**
+     *  Prepares the document table before any files are processed. A full
+     *  build starts from an empty table. An incremental build keeps the table,
+     *  continues numbering after the highest docID in it and sends the new
+     *  postings to a new segment.
+     */
+    public void startIndexing( boolean incremental ) {
+        if (incremental && !(index instanceof PersistentHashedIndex)) {
+            System.err.println( "Incremental indexing needs a persistent index, indexing everything" );
+            incremental = false;
+        }
+        this.incremental = incremental;
+        docTermFrequencies.clear();
+        docFrequencies.clear();
+        if (incremental) {
+            PersistentHashedIndex persistentIndex = (PersistentHashedIndex) index;
+            for (Map.Entry<Integer, String> entry : index.docNames.entrySet()) {
+                if (!persistentIndex.isDeleted(entry.getKey())) {
+                    previousDocIDs.put(entry.getValue(), entry.getKey());
+                }
+                lastDocID = Math.max(lastDocID, entry.getKey() + 1);
+            }
+            persistentIndex.startSegment();
+            // only the terms of this run get new bounds, the others keep theirs
+            index.scoreBounds.clear();
+            ScoreBounds.read( index.scoreBounds, PersistentHashedIndex.INDEXDIR + "/score_bounds" );
+        } else {
+            index.docNames.clear();
+            index.docLengths.clear();
+            index.euclideanLengths.clear();
+            index.docModified.clear();
+            index.docHashes.clear();
+            index.scoreBounds.clear();
+        }
+    }
+
+
+    /**
+     *  Marks the documents whose files were not found during this run as
+     *  deleted (incremental mode only).
+     */
+    public void finishIndexing() {
+        if (!incremental) return;
+        PersistentHashedIndex persistentIndex = (PersistentHashedIndex) index;
+        int removed = 0;
+        for (Map.Entry<String, Integer> entry : previousDocIDs.entrySet()) {
+            if (!seenPaths.contains(entry.getKey())) {
+                persistentIndex.delete(entry.getValue());
+                removed++;
+            }
+        }
+        System.err.println( "Incremental indexing: " + docTermFrequencies.size() + " new or changed, " + removed + " removed" );
+    }
+
+
+    /**
+     *  Indexes a batch of changed files (incremental mode). Files and
+     *  directories that no longer exist are deleted from the index.
+     */
+    public void processChanges( Collection<File> files ) {
+        PersistentHashedIndex persistentIndex = (PersistentHashedIndex) index;
+        for (File f : files) {
+            if (f.exists()) {
+                processFiles(f, true);
+                continue;
+            }
+            String dirPrefix = f.getPath() + File.separator;
+            Iterator<Map.Entry<String, Integer>> it = previousDocIDs.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Integer> entry = it.next();
+                if (entry.getKey().equals(f.getPath()) || entry.getKey().startsWith(dirPrefix)) {
+                    persistentIndex.delete(entry.getValue());
+                    it.remove();
+                }
+            }
+        }
+    }
+
+
+    /**
+     *  Returns true if the file is indexed and has the same modification
+     *  time as when it was indexed.
+     */
+    private boolean isUnmodified( File f ) {
+        seenPaths.add(f.getPath());
+        Integer oldDocID = previousDocIDs.get(f.getPath());
+        return oldDocID != null && index.docModified.getOrDefault(oldDocID, -1L) == f.lastModified();
+    }
+
+
+    /**
+     *  Returns true if the file has to be (re)indexed. A file that was only
+     *  touched keeps its docID, a changed file supersedes its old docID.
+     */
+    private boolean isChanged( File f, String contentHash ) {
+        Integer oldDocID = previousDocIDs.get(f.getPath());
+        if (oldDocID == null) {
+            return true;
+        }
+        if (contentHash.equals(index.docHashes.get(oldDocID))) {
+            index.docModified.put(oldDocID, f.lastModified());
+            return false;
+        }
+        ((PersistentHashedIndex) index).delete(oldDocID);
+        return true;
+    }
+
+
+    /**
+     *  Returns the SHA-1 hash of the file contents as a hex string.
+     */
+    private static String hash( byte[] contents ) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(contents)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch ( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
 
     /**
      *  Tokenizes and indexes the file @code{f}. If <code>f</code> is a directory,
@@ -68,11 +204,22 @@ public class Indexer {
                         }
                     }
                 } else {
+                    // In incremental mode, skip the files that are already indexed
+                    if (incremental && isUnmodified(f)) return;
+                    byte[] contents;
+                    try {
+                        contents = Files.readAllBytes(f.toPath());
+                    } catch ( IOException e ) {
+                        System.err.println( "Warning: IOException during indexing." );
+                        return;
+                    }
+                    String contentHash = hash(contents);
+                    if (incremental && !isChanged(f, contentHash)) return;
                     // First register the document and get a docID
                     int docID = generateDocID();
                     if ( docID%1000 == 0 ) System.err.println( "Indexed " + docID + " files" );
                     try {
-                        Reader reader = new InputStreamReader( new FileInputStream(f), StandardCharsets.UTF_8 );
+                        Reader reader = new InputStreamReader( new ByteArrayInputStream(contents), StandardCharsets.UTF_8 );
                         Tokenizer tok = new Tokenizer( reader, true, false, true, patterns_file );
                         int offset = 0;
                         HashMap<String, Integer> termFreq = new HashMap<>();
@@ -85,6 +232,9 @@ public class Indexer {
                         docTermFrequencies.put(docID, termFreq);
                         index.docNames.put( docID, f.getPath() );
                         index.docLengths.put( docID, offset );
+                        index.docModified.put( docID, f.lastModified() );
+                        index.docHashes.put( docID, contentHash );
+                        if (incremental) previousDocIDs.put( f.getPath(), docID );
                         for (String term : termFreq.keySet()) {
                             docFrequencies.put(term, docFrequencies.getOrDefault(term, 0) + 1);
                         }
@@ -97,23 +247,44 @@ public class Indexer {
         }
     }
 
-    public void writeEuclideanLengths(String filename) {
+    /**
+     *  Computes the Euclidean lengths of the documents indexed since the
+     *  last call and keeps them in the index, without writing them.
+     */
+    public void computeEuclideanLengths() {
         int N = index.docNames.size();
-        try (PrintWriter writer = new PrintWriter(filename)) {
-            for (int docID : docTermFrequencies.keySet()) {
-                HashMap<String, Integer> termFreq = docTermFrequencies.get(docID);
-                double sum = 0.0;
-                for (Map.Entry<String, Integer> entry : termFreq.entrySet()) {
-                    String term = entry.getKey();
-                    int tf = entry.getValue();
-                    int df = docFrequencies.getOrDefault(term, 0);
-                    if (df == 0) continue;
-                    double idf = Math.log((double) N / df);
-                    sum += Math.pow(tf * idf, 2);
+        for (int docID : docTermFrequencies.keySet()) {
+            HashMap<String, Integer> termFreq = docTermFrequencies.get(docID);
+            double sum = 0.0;
+            for (Map.Entry<String, Integer> entry : termFreq.entrySet()) {
+                String term = entry.getKey();
+                int tf = entry.getValue();
+                int df;
+                if (incremental) {
+                    // the index already holds the new documents, on disk or in memory
+                    df = index.docFrequency(term);
+                } else {
+                    df = docFrequencies.getOrDefault(term, 0);
                 }
-                double euclideanLength = Math.sqrt(sum);
-                index.euclideanLengths.put(docID, euclideanLength);
-                writer.println(docID + " " + euclideanLength);
+                if (df == 0) continue;
+                double idf = Math.log((double) N / df);
+                sum += Math.pow(tf * idf, 2);
+            }
+            index.euclideanLengths.put(docID, Math.sqrt(sum));
+        }
+        docTermFrequencies.clear();
+    }
+
+    /**
+     *  Computes the Euclidean lengths of the documents indexed since the
+     *  last call and writes the lengths of all documents to a file. The
+     *  lengths of the old documents are kept as they were computed.
+     */
+    public void writeEuclideanLengths(String filename) {
+        computeEuclideanLengths();
+        try (PrintWriter writer = new PrintWriter(filename)) {
+            for (Map.Entry<Integer, Double> entry : index.euclideanLengths.entrySet()) {
+                writer.println(entry.getKey() + " " + entry.getValue());
             }
         } catch (FileNotFoundException e) {
             System.err.println("Error saving Euclidean lengths: " + e.getMessage());
@@ -121,6 +292,23 @@ public class Indexer {
     }
 
 
+    /**
+     *  Computes the score bounds of the terms indexed since the last call
+     *  and writes the bounds of all terms to a file. Has to be called when
+     *  the postings and the Euclidean lengths are final, i.e. after cleanup.
+     */
+    public void writeScoreBounds(String filename) {
+        for (String term : docFrequencies.keySet()) {
+            PostingsList postings = index.getPostings(term);
+            if (postings != null) {
+                index.scoreBounds.put(term, ScoreBounds.of(postings, index));
+            }
+        }
+        docFrequencies.clear();
+        ScoreBounds.write(index.scoreBounds, filename);
+    }
+
+
     /* ----------------------------------------------- */
 
 
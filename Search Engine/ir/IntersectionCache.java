@@ -0,0 +1,186 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ *   Caches the documents that contain both terms of a frequent pair, so
+ *   that intersection queries with the pair start from its documents
+ *   instead of from the postings lists of the terms.
+ *
+ *   Every intersection query counts the pairs of its terms. A pair is
+ *   admitted once it has been seen in <code>admitCount</code> queries, and
+ *   its intersection is then computed and kept as a sorted array of
+ *   docIDs. The searcher leaves out pairs of two frequent terms, which it
+ *   already intersects as DocIdSets in memory. Queries that share a pair benefit even if they are never the
+ *   same query, which is what sets this apart from the ResultCache.
+ *
+ *   The cache holds at most <code>capacity</code> docIDs in all and
+ *   evicts the least recently used pairs. The counts are halved when too
+ *   many pairs are counted, so pairs that were frequent long ago are
+ *   forgotten. All pairs are dropped when the generation of the index
+ *   changes.
+ */
+class IntersectionCache {
+
+    /** Pairs seen in this many queries are cached. */
+    static final int ADMIT_COUNT = 3;
+
+    /** The counts are halved when more pairs than this are counted. */
+    static final int MAX_COUNTED = 100000;
+
+    /** The docIDs of the cached pairs, the least recently used first. */
+    private final LinkedHashMap<String,int[]> pairs = new LinkedHashMap<String,int[]>(16, 0.75f, true);
+
+    /** The number of queries each pair has been seen in. */
+    private final HashMap<String,Integer> counts = new HashMap<String,Integer>();
+
+    /** Pairs with too many documents to be cached in this generation of the index. */
+    private final HashSet<String> tooLarge = new HashSet<String>();
+
+    /** The maximum number of docIDs in all cached pairs. */
+    private final int capacity;
+
+    /** Pairs seen in this many queries are cached. */
+    int admitCount = ADMIT_COUNT;
+
+    /** The number of docIDs in all cached pairs. */
+    private long size = 0;
+
+    /** The generation of the index the pairs were computed on. */
+    private long generation = -1;
+
+    /** Queries that started from a cached pair, and those that didn't. */
+    private long hits = 0;
+    private long misses = 0;
+
+    /** Pairs that have been admitted. */
+    private long admissions = 0;
+
+
+    /**
+     *  Creates a cache of at most <code>capacity</code> docIDs.
+     */
+    IntersectionCache( int capacity ) {
+        this.capacity = capacity;
+    }
+
+
+    /**
+     *  Returns the key of a pair, which is the same in both orders.
+     */
+    static String key( String a, String b ) {
+        return a.compareTo(b) < 0 ? a + " " + b : b + " " + a;
+    }
+
+
+    /**
+     *  Drops the pairs if the index has changed since they were cached.
+     */
+    private void checkGeneration( long generation ) {
+        if (this.generation != generation) {
+            pairs.clear();
+            tooLarge.clear();
+            size = 0;
+            this.generation = generation;
+        }
+    }
+
+
+    /**
+     *  Counts a pair of terms seen in a query. Returns true if the pair has
+     *  now been seen often enough to be cached, but isn't, and isn't known
+     *  to be too large.
+     */
+    synchronized boolean observe( String a, String b, long generation ) {
+        checkGeneration(generation);
+        if (counts.size() > MAX_COUNTED) {
+            age();
+        }
+        String key = key(a, b);
+        if (tooLarge.contains(key)) return false;
+        return counts.merge(key, 1, Integer::sum) >= admitCount && !pairs.containsKey(key);
+    }
+
+
+    /** Halves the counts and forgets the pairs whose count drops to 0. */
+    private void age() {
+        Iterator<Map.Entry<String,Integer>> it = counts.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String,Integer> entry = it.next();
+            if (entry.getValue() < 2) {
+                it.remove();
+            } else {
+                entry.setValue(entry.getValue() / 2);
+            }
+        }
+    }
+
+
+    /**
+     *  Returns the sorted docIDs of the documents with both terms, or null
+     *  if the pair isn't cached for this generation of the index.
+     */
+    synchronized int[] get( String a, String b, long generation ) {
+        checkGeneration(generation);
+        return pairs.get(key(a, b));
+    }
+
+
+    /**
+     *  Counts a query as a hit if it started from a cached pair.
+     */
+    synchronized void record( boolean hit ) {
+        if (hit) {
+            hits++;
+        } else {
+            misses++;
+        }
+    }
+
+
+    /**
+     *  Caches the docIDs of a pair, computed on the given generation of
+     *  the index. A pair with more than a tenth of the capacity is not
+     *  cached, and isn't computed again until the index changes.
+     */
+    synchronized void put( String a, String b, PostingsList postings, long generation ) {
+        checkGeneration(generation);
+        String key = key(a, b);
+        if (postings.size() > capacity / 10) {
+            tooLarge.add(key);
+            counts.remove(key);
+            return;
+        }
+        admissions++;
+        // an evicted pair has to be seen as often again to be admitted
+        counts.remove(key);
+        int[] docIDs = new int[postings.size()];
+        for (int i = 0; i < docIDs.length; i++) {
+            docIDs[i] = postings.get(i).docID;
+        }
+        int[] old = pairs.put(key, docIDs);
+        size += docIDs.length + 1 - (old == null ? 0 : old.length + 1);
+        Iterator<int[]> lru = pairs.values().iterator();
+        while (size > capacity && lru.hasNext()) {
+            size -= lru.next().length + 1;
+            lru.remove();
+        }
+    }
+
+
+    /** Returns the number of hits, misses, admissions and cached pairs. */
+    synchronized String stats() {
+        return String.format("Intersection cache: %.1f%% of queries started from a pair (%d hits, %d misses), %d admitted, %d pairs with %d documents",
+                             hits + misses == 0 ? 0.0 : 100.0 * hits / (hits + misses), hits, misses, admissions, pairs.size(), size - pairs.size());
+    }
+}
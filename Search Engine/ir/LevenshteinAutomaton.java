@@ -0,0 +1,65 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+
+/**
+ *   Accepts the terms within an edit distance of k from a given term
+ *   (insertions, deletions and substitutions).
+ *
+ *   A state is the last row of the edit distance table between the term
+ *   and the characters read so far, with every entry capped at k + 1.
+ *   There are finitely many such rows, so this is a deterministic
+ *   automaton. A row whose entries are all above k is dead.
+ */
+class LevenshteinAutomaton extends TermAutomaton<String> {
+
+    /** The term the distance is measured from. */
+    private final String term;
+
+    /** The maximum number of edits. */
+    private final int k;
+
+
+    LevenshteinAutomaton( String term, int k ) {
+        this.term = term;
+        this.k = k;
+    }
+
+
+    /**
+     *  The row of the empty prefix: i edits to match the first i characters.
+     *  A row is stored as a string with one char per entry, so it can be
+     *  hashed and compared by content.
+     */
+    protected String startValue() {
+        char[] row = new char[term.length() + 1];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = (char) Math.min(i, k + 1);
+        }
+        return new String(row);
+    }
+
+
+    protected String nextValue( String value, char c ) {
+        char[] row = new char[value.length()];
+        row[0] = (char) Math.min(value.charAt(0) + 1, k + 1);
+        int min = row[0];
+        for (int i = 1; i < row.length; i++) {
+            int substitute = value.charAt(i - 1) + (term.charAt(i - 1) == c ? 0 : 1);
+            int insert = value.charAt(i) + 1;
+            int delete = row[i - 1] + 1;
+            row[i] = (char) Math.min(Math.min(substitute, insert), Math.min(delete, k + 1));
+            min = Math.min(min, row[i]);
+        }
+        return min > k ? null : new String(row);
+    }
+
+
+    protected boolean acceptsValue( String value ) {
+        return value.charAt(value.length() - 1) <= k;
+    }
+}
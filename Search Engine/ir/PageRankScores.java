@@ -0,0 +1,234 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ *   The PageRank of every document as an array of floats indexed by
+ *   docID, so looking up a score is one array read.
+ *
+ *   The array is stored as a binary file of big-endian floats, float i
+ *   being the score of document i (0 for documents without a score),
+ *   after the number of documents the scores were converted for. It is
+ *   converted once from the text output of the PageRank program, and
+ *   mapped into memory when the engine starts. A file for another number
+ *   of documents is not used, since its docIDs are likely not the ones
+ *   of the index.
+ *
+ *   Usage: java ir.PageRankScores pageRankFile
+ *   converts the scores for the persistent index in ./index.
+ */
+public class PageRankScores {
+
+    /** The binary file of the scores in the index directory. */
+    public static final String FNAME = "pagerank";
+
+    /** The scores, by docID. */
+    private final FloatBuffer scores;
+
+    /** True if the scores never increase with the docID. */
+    private final boolean descending;
+
+
+    private PageRankScores( FloatBuffer scores ) {
+        this.scores = scores;
+        boolean descending = true;
+        for (int i = 1; i < scores.limit() && descending; i++) {
+            descending = scores.get(i) <= scores.get(i - 1);
+        }
+        // the documents after the array have score 0
+        this.descending = descending && (scores.limit() == 0 || scores.get(scores.limit() - 1) >= 0);
+    }
+
+
+    /** Returns the PageRank of a document, or 0 if it has none. */
+    public double score( int docID ) {
+        return docID >= 0 && docID < scores.limit() ? scores.get(docID) : 0;
+    }
+
+
+    /** Returns the number of docIDs in the array. */
+    public int size() {
+        return scores.limit();
+    }
+
+
+    /**
+     *  Returns true if the documents are numbered in order of decreasing
+     *  PageRank, so that no document has a higher score than the ones
+     *  before it.
+     */
+    public boolean isDescending() {
+        return descending;
+    }
+
+
+    /**
+     *  Returns the scores with the docIDs changed to <code>newDocID[docID]</code>.
+     *  Documents whose new docID is negative are dropped.
+     */
+    float[] renumbered( int[] newDocID ) {
+        int size = 0;
+        for (int docID = 0; docID < newDocID.length; docID++) {
+            size = Math.max(size, newDocID[docID] + 1);
+        }
+        float[] result = new float[size];
+        for (int docID = 0; docID < Math.min(newDocID.length, scores.limit()); docID++) {
+            if (newDocID[docID] >= 0) result[newDocID[docID]] = scores.get(docID);
+        }
+        return result;
+    }
+
+
+    /**
+     *  Returns the name a document is matched on: its file name without
+     *  the directories, which differ between the machine the PageRank
+     *  program ran on and the indexed paths.
+     */
+    static String fileName( String path ) {
+        return path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1);
+    }
+
+
+    /**
+     *  Returns the number of documents of the index that are not deleted,
+     *  which merging the segments doesn't change.
+     */
+    static int liveDocuments( Index index ) {
+        int count = 0;
+        for (int docID : index.docNames.keySet()) {
+            if (!index.isDeleted(docID)) count++;
+        }
+        return count;
+    }
+
+
+    /**
+     *  Converts the text output of the PageRank program, one "document
+     *  score" line per document, to the binary file of the index.
+     *  Documents that are not in the index are skipped.
+     */
+    public static void convert( String textFile, Index index, String binaryFile ) {
+        float[] scores = parse( textFile, index );
+        if (scores != null) {
+            write( scores, liveDocuments( index ), binaryFile );
+        }
+    }
+
+
+    /**
+     *  Reads scores in the text format of the PageRank program into an
+     *  array indexed by docID, or returns null if the file can't be read.
+     */
+    static float[] parse( String textFile, Index index ) {
+        HashMap<String,Integer> docIDs = new HashMap<String,Integer>();
+        int maxDocID = -1;
+        for (Map.Entry<Integer,String> entry : index.docNames.entrySet()) {
+            docIDs.put(fileName(entry.getValue()), entry.getKey());
+            maxDocID = Math.max(maxDocID, entry.getKey());
+        }
+        float[] scores = new float[maxDocID + 1];
+        int found = 0, missing = 0, malformed = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(textFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                // the name may have spaces, the score is after the last run of whitespace
+                String[] parts = line.split("\\s+");
+                if (parts.length < 2) {
+                    malformed++;
+                    continue;
+                }
+                String score = parts[parts.length - 1];
+                Integer docID = docIDs.get(fileName(line.substring(0, line.length() - score.length()).trim()));
+                if (docID == null) {
+                    missing++;
+                    continue;
+                }
+                try {
+                    scores[docID] = Float.parseFloat(score);
+                    found++;
+                } catch ( NumberFormatException e ) {
+                    malformed++;
+                }
+            }
+        } catch ( IOException e ) {
+            System.err.println( "Error reading PageRank file: " + e.getMessage() );
+            return null;
+        }
+        System.err.println( "Read scores for " + found + " documents from " + textFile + ", " + missing + " not in the index, "
+                            + malformed + " lines without a score" );
+        return scores;
+    }
+
+
+    /**
+     *  Writes scores for an index of <code>docCount</code> documents to a
+     *  binary file. The file is written next to the old one and then
+     *  renamed, so a mapping of the old file stays valid.
+     */
+    static void write( float[] scores, int docCount, String binaryFile ) {
+        File tmp = new File( binaryFile + ".tmp" );
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(docCount);
+            for (float score : scores) {
+                out.writeFloat(score);
+            }
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            return;
+        }
+        try {
+            Files.move( tmp.toPath(), new File( binaryFile ).toPath(), StandardCopyOption.REPLACE_EXISTING );
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     *  Maps the binary file into memory, or returns null if there is none
+     *  or it was converted for another number of documents.
+     */
+    public static PageRankScores read( String binaryFile, Index index ) {
+        File file = new File( binaryFile );
+        if (!file.exists()) return null;
+        try (RandomAccessFile raf = new RandomAccessFile( file, "r" )) {
+            int docCount = raf.length() >= Integer.BYTES ? raf.readInt() : -1;
+            if (docCount != liveDocuments( index )) {
+                System.err.println( "The PageRank scores in " + binaryFile + " are for another set of documents, convert them again" );
+                return null;
+            }
+            // the mapping stays valid after the file is closed
+            ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, Integer.BYTES, raf.length() - Integer.BYTES);
+            return new PageRankScores(buffer.asFloatBuffer());
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+
+    public static void main( String[] args ) {
+        if (args.length != 1) {
+            System.err.println( "Usage: java ir.PageRankScores pageRankFile" );
+            return;
+        }
+        Index index = new PersistentHashedIndex();
+        convert( args[0], index, PersistentHashedIndex.INDEXDIR + "/" + FNAME );
+    }
+}
@@ -9,8 +9,11 @@ package ir;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.nio.ByteBuffer;
 import java.nio.charset.*;
+import java.nio.file.Files;
 
 
 /*
@@ -23,6 +26,11 @@ import java.nio.charset.*;
  *   When words are read and indexed, they are first put in an ordinary,
  *   main-memory HashMap. When all words are read, the index is committed
  *   to disk.
+ *
+ *   In incremental mode the HashMap only holds the new and changed
+ *   documents, and is committed as a new segment next to the main index
+ *   instead of replacing it. Searches go through all segments until they
+ *   are merged back into the main index.
  */
 public class PersistentHashedIndex implements Index {
 
@@ -41,6 +49,15 @@ public class PersistentHashedIndex implements Index {
     /** The doc info file name */
     public static final String DOCINFO_FNAME = "docInfo";
 
+    /** The file listing the segments written by incremental indexing */
+    public static final String SEGMENTS_FNAME = "segments";
+
+    /** The deletion bitmap file name */
+    public static final String DELETED_FNAME = "deleted";
+
+    /** Prefix of the file suffix of each segment */
+    public static final String SEGMENT_PREFIX = ".seg";
+
     protected static final String DELIMITER = "<"; // need rare symbol
 
     /** The dictionary hash table on disk can fit this many entries. */
@@ -59,6 +76,34 @@ public class PersistentHashedIndex implements Index {
     /** The cache as a main-memory hash map. */
     HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
 
+    /** Suffix of the dictionary and data files ("" for the main index). */
+    String suffix = "";
+
+    /** Number of changes to the index, see <code>generation</code>. */
+    long generation = 0;
+
+    /** Segments written by incremental indexing, in the order they were written. */
+    ArrayList<PersistentHashedIndex> segments = new ArrayList<PersistentHashedIndex>();
+
+    /** The smallest docID in this segment. */
+    int firstDocID = 0;
+
+    /** 
+     *  Bitmap of the documents in this segment that have been deleted,
+     *  bit i stands for docID firstDocID + i.
+     */
+    BitSet deleted = new BitSet();
+
+    /**
+     *  Bitmap of the deleted documents of the index and all its segments,
+     *  bit i stands for docID i. The bitmaps of the segments are the form
+     *  written to disk, this one answers <code>isDeleted</code>.
+     */
+    BitSet deletedDocs = new BitSet();
+
+    /** If true, the main-memory index is written as a new segment on cleanup. */
+    boolean incremental = false;
+
 
     // ===================================================================
 
@@ -69,18 +114,26 @@ public class PersistentHashedIndex implements Index {
         //
         //  YOUR CODE HERE
         //
+        /** Number of bytes of an entry in the dictionary file. */
+        public static final int BYTES = Long.BYTES + 2 * Integer.BYTES;
+
         long pointer;
         int size;
 
-        public Entry(long pointer, int size) {
+        /** Number of documents in the postings list, so it can be known without reading the list. */
+        int df;
+
+        public Entry(long pointer, int size, int df) {
             this.pointer = pointer;
             this.size = size;
+            this.df = df;
         }
 
         public byte[] toByte() {
-            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+            ByteBuffer buffer = ByteBuffer.allocate(BYTES);
             buffer.putLong(pointer);
             buffer.putInt(size);
+            buffer.putInt(df);
             return buffer.array();
         }
 
@@ -88,10 +141,11 @@ public class PersistentHashedIndex implements Index {
             ByteBuffer buffer = ByteBuffer.wrap(bytes);
             long pointer = buffer.getLong();
             int size = buffer.getInt();
+            int df = buffer.getInt();
             if (pointer == 0 && size == 0) {
                 return null; // empty entry
             }
-            return new Entry(pointer, size);
+            return new Entry(pointer, size, df);
         }
 
     }
@@ -118,6 +172,45 @@ public class PersistentHashedIndex implements Index {
         } catch ( IOException e ) {
             e.printStackTrace();
         }
+
+        try {
+            readDeleted();
+            readSegments();
+        } catch ( FileNotFoundException e ) {
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+        collectDeleted();
+    }
+
+
+    /**
+     *  Sets the bits of the deleted documents of all segments in <code>deletedDocs</code>.
+     */
+    private void collectDeleted() {
+        deletedDocs.clear();
+        deletedDocs.or(deleted);
+        for (PersistentHashedIndex segment : segments) {
+            BitSet bits = segment.deleted;
+            for (int bit = bits.nextSetBit(0); bit >= 0; bit = bits.nextSetBit(bit + 1)) {
+                deletedDocs.set(segment.firstDocID + bit);
+            }
+        }
+    }
+
+
+    /**
+     *  Constructor for a segment. Opens the dictionary and data files with
+     *  the given suffix, the doc info is shared with the main index.
+     */
+    PersistentHashedIndex( String suffix ) {
+        this.suffix = suffix;
+        try {
+            dictionaryFile = new RandomAccessFile( INDEXDIR + "/" + DICTIONARY_FNAME + suffix, "rw" );
+            dataFile = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME + suffix, "rw" );
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -187,7 +280,7 @@ public class PersistentHashedIndex implements Index {
         //
         try {
             dictfile.seek(ptr);
-            byte[] buffer = new byte[Long.BYTES + Integer.BYTES]; 
+            byte[] buffer = new byte[Entry.BYTES]; 
             dictfile.readFully(buffer);
             return Entry.fromByte(buffer);
         } catch (IOException e) {
@@ -208,7 +301,8 @@ public class PersistentHashedIndex implements Index {
         FileOutputStream fout = new FileOutputStream( INDEXDIR + "/docInfo" );
         for ( Map.Entry<Integer,String> entry : docNames.entrySet() ) {
             Integer key = entry.getKey();
-            String docInfoEntry = key + ";" + entry.getValue() + ";" + docLengths.get(key) + "\n";
+            String docInfoEntry = key + ";" + entry.getValue() + ";" + docLengths.get(key) + ";" + 
+                docModified.getOrDefault(key, 0L) + ";" + docHashes.getOrDefault(key, "") + "\n";
             fout.write( docInfoEntry.getBytes() );
         }
         fout.close();
@@ -230,6 +324,11 @@ public class PersistentHashedIndex implements Index {
                 String[] data = line.split(";");
                 docNames.put( Integer.parseInt(data[0]), data[1] );
                 docLengths.put( Integer.parseInt(data[0]), Integer.parseInt(data[2]) );
+                // older doc info files don't have the modification time and hash
+                if (data.length > 4) {
+                    docModified.put( Integer.parseInt(data[0]), Long.parseLong(data[3]) );
+                    docHashes.put( Integer.parseInt(data[0]), data[4] );
+                }
             }
         }
         freader.close();
@@ -248,6 +347,61 @@ public class PersistentHashedIndex implements Index {
     }
 
 
+    /**
+     *  Opens the segments listed in the segments file, together with their
+     *  deletion bitmaps. Each line has the format suffix;firstDocID
+     */
+    private void readSegments() throws IOException {
+        try ( BufferedReader br = new BufferedReader( new FileReader( INDEXDIR + "/" + SEGMENTS_FNAME )) ) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                String[] data = line.split(";");
+                PersistentHashedIndex segment = new PersistentHashedIndex(data[0]);
+                segment.firstDocID = Integer.parseInt(data[1]);
+                segment.readDeleted();
+                segments.add(segment);
+            }
+        }
+    }
+
+
+    /**
+     *  Writes the list of segments and the deletion bitmaps of all segments to file.
+     */
+    private void writeSegments() throws IOException {
+        try ( PrintWriter writer = new PrintWriter( INDEXDIR + "/" + SEGMENTS_FNAME ) ) {
+            for (PersistentHashedIndex segment : segments) {
+                writer.println(segment.suffix + ";" + segment.firstDocID);
+                segment.writeDeleted();
+            }
+        }
+        writeDeleted();
+    }
+
+
+    /**
+     *  Reads the deletion bitmap of this segment, if there is one.
+     */
+    private void readDeleted() throws IOException {
+        File file = new File( INDEXDIR + "/" + DELETED_FNAME + suffix );
+        if (file.exists()) {
+            deleted = BitSet.valueOf(Files.readAllBytes(file.toPath()));
+        }
+    }
+
+
+    /**
+     *  Writes the deletion bitmap of this segment.
+     */
+    private void writeDeleted() throws IOException {
+        try ( FileOutputStream fout = new FileOutputStream( INDEXDIR + "/" + DELETED_FNAME + suffix ) ) {
+            fout.write(deleted.toByteArray());
+        }
+    }
+
+
     /**
      *  Write the index to files.
      */
@@ -265,7 +419,7 @@ public class PersistentHashedIndex implements Index {
             //  YOUR CODE HERE
             //
             dictionaryFile.setLength(0);
-            dictionaryFile.setLength(TABLESIZE * (Long.BYTES + Integer.BYTES));
+            dictionaryFile.setLength(TABLESIZE * Entry.BYTES);
             for (Map.Entry<String, PostingsList> entry : index.entrySet()) {
                 String term = entry.getKey();
                 PostingsList postingList = entry.getValue();
@@ -273,11 +427,11 @@ public class PersistentHashedIndex implements Index {
 
                 long dataPointer = free;
                 long hash = hashFunction(term);
-                long dictPointer = hash * (Long.BYTES + Integer.BYTES);
+                long dictPointer = hash * Entry.BYTES;
                 int size = writeData(postingString, free);
                 free += size;
 
-                Entry dictEntry = new Entry(dataPointer, size);
+                Entry dictEntry = new Entry(dataPointer, size, postingList.size());
 
                 while(true) {
                     Entry existingEntry = readEntry(dictionaryFile, dictPointer);
@@ -286,8 +440,8 @@ public class PersistentHashedIndex implements Index {
                         break;
                     } else {
                         collisions++;
-                        dictPointer += (Long.BYTES + Integer.BYTES);
-                        if (dictPointer >= TABLESIZE * (Long.BYTES + Integer.BYTES)) {
+                        dictPointer += Entry.BYTES;
+                        if (dictPointer >= TABLESIZE * Entry.BYTES) {
                             dictPointer = 0; // wrap around
                         }
                     }
@@ -312,30 +466,120 @@ public class PersistentHashedIndex implements Index {
      *  if the term is not in the index.
      */
     public PostingsList getPostings( String token ) {
-        //
-        //  REPLACE THE STATEMENT BELOW WITH YOUR CODE
-        //
+        PostingsList postings = readPostings(token);
+        // segments only contain docIDs larger than the ones before them,
+        // so appending keeps the list sorted
+        for (PersistentHashedIndex segment : segments) {
+            PostingsList segmentPostings = segment.readPostings(token);
+            if (segmentPostings == null) continue;
+            if (postings == null) {
+                postings = segmentPostings;
+            } else {
+                postings.list.addAll(segmentPostings.list);
+            }
+        }
+        if (incremental) {
+            // documents indexed since the last flush are searchable before they are written
+            PostingsList memoryPostings = index.get(token);
+            if (memoryPostings != null) {
+                if (postings == null) postings = new PostingsList();
+                postings.list.addAll(memoryPostings.list);
+            }
+        }
+        return postings;
+    }
+
+
+    /**
+     *  Returns the postings for a specific term in this segment only.
+     */
+    PostingsList readPostings( String token ) {
+        Entry entry = findEntry(token);
+        if (entry == null) {
+            return null;
+        }
+        String postingString = readData(entry.pointer, entry.size);
+        return PostingsList.fromString(postingString.split(DELIMITER, 2)[1]);
+    }
+
+
+    /**
+     *  Returns the dictionary entry of a term in this segment, or null if
+     *  the term is not in it. Only the term at the start of the data is
+     *  read to check that the entry is the right one.
+     */
+    Entry findEntry( String token ) {
+        byte[] key = (token + DELIMITER).getBytes();
         long hash = hashFunction(token);
-        long dictPointer = hash * (Long.BYTES + Integer.BYTES);
+        long dictPointer = hash * Entry.BYTES;
 
         while(true) {
             Entry entry = readEntry(dictionaryFile, dictPointer);
             if(entry == null) {
                 return null;
             }
-            String postingString = readData(entry.pointer, entry.size);
-            String[] parts = postingString.split(DELIMITER, 2);  // Split into term and postings
-            if (parts.length == 2 && parts[0].equals(token)) {
-                return PostingsList.fromString(parts[1]);
+            if (entry.size > key.length && readData(entry.pointer, key.length).equals(token + DELIMITER)) {
+                return entry;
             }
-            dictPointer += (Long.BYTES + Integer.BYTES);
-            if (dictPointer >= TABLESIZE * (Long.BYTES + Integer.BYTES)) {
+            dictPointer += Entry.BYTES;
+            if (dictPointer >= TABLESIZE * Entry.BYTES) {
                 dictPointer = 0; // wrap around
             }
         }
     }
 
 
+    /**
+     *  Returns all terms in the main index, the segments and main memory.
+     *  Only the terms are taken from the data files, the postings are not
+     *  parsed.
+     */
+    public Set<String> terms() {
+        HashSet<String> terms = new HashSet<String>(index.keySet());
+        try {
+            forEachRecord(record -> terms.add(record.substring(0, record.indexOf(DELIMITER))));
+            for (PersistentHashedIndex segment : segments) {
+                segment.forEachRecord(record -> terms.add(record.substring(0, record.indexOf(DELIMITER))));
+            }
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+        return terms;
+    }
+
+
+    /**
+     *  Returns the number of documents containing a term, including deleted
+     *  ones, from the dictionary entries without reading the postings.
+     */
+    public int docFrequency( String token ) {
+        Entry entry = findEntry(token);
+        int df = entry == null ? 0 : entry.df;
+        for (PersistentHashedIndex segment : segments) {
+            Entry segmentEntry = segment.findEntry(token);
+            if (segmentEntry != null) df += segmentEntry.df;
+        }
+        if (incremental) {
+            PostingsList memoryPostings = index.get(token);
+            if (memoryPostings != null) df += memoryPostings.size();
+        }
+        return df;
+    }
+
+
+    /**
+     *  Returns the number of postings in a string written by PostingsList.toString.
+     */
+    static int countPostings( String postingsString ) {
+        if (postingsString.trim().isEmpty()) return 0;
+        int n = 1;
+        for (int i = 0; i < postingsString.length(); i++) {
+            if (postingsString.charAt(i) == '-') n++;
+        }
+        return n;
+    }
+
+
     /**
      *  Inserts this token in the main-memory hashtable.
      */
@@ -343,6 +587,7 @@ public class PersistentHashedIndex implements Index {
         //
         // YOUR CODE HERE
         //
+        generation++;
         PostingsList postingsList = index.get(token);
 
         if (postingsList == null) {
@@ -360,13 +605,283 @@ public class PersistentHashedIndex implements Index {
     }
 
 
+    // ==================================================================
+    //
+    //  Incremental indexing.
+
+    /**
+     *  Makes the following inserts go into a new segment instead of
+     *  replacing the index on disk.
+     */
+    public void startSegment() {
+        incremental = true;
+        index.clear();
+    }
+
+
+    /**
+     *  Returns the segment holding the postings of a document. The segments
+     *  are in order of their first docID, so the search is binary.
+     */
+    private PersistentHashedIndex segmentOf( int docID ) {
+        int lo = 0, hi = segments.size() - 1;
+        PersistentHashedIndex segment = this;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (docID >= segments.get(mid).firstDocID) {
+                segment = segments.get(mid);
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return segment;
+    }
+
+
+    /**
+     *  Marks a document as deleted. The searcher skips its postings until
+     *  the next merge removes them. Only a bit is set, the bitmaps are 
+     *  written to disk on cleanup.
+     */
+    public void delete( int docID ) {
+        generation++;
+        deletedDocs.set(docID);
+        PersistentHashedIndex segment = segmentOf(docID);
+        segment.deleted.set(docID - segment.firstDocID);
+    }
+
+
+    /**
+     *  Returns true if the document has been deleted.
+     */
+    public boolean isDeleted( int docID ) {
+        return deletedDocs.get(docID);
+    }
+
+
+    /**
+     *  Returns the number of inserts, deletions, merges and writes to
+     *  disk so far.
+     */
+    public long generation() {
+        return generation;
+    }
+
+
+    /**
+     *  Returns true if any document in any segment has been deleted.
+     */
+    private boolean hasDeletions() {
+        return !deletedDocs.isEmpty();
+    }
+
+
+    /**
+     *  Writes the main-memory index as a new segment.
+     */
+    private void writeSegment() throws IOException {
+        if (index.isEmpty()) {
+            // nothing new, but documents may have been deleted
+            writeDocInfo();
+            writeSegments();
+            return;
+        }
+        int number = 1;
+        for (PersistentHashedIndex segment : segments) {
+            number = Math.max(number, Integer.parseInt(segment.suffix.substring(SEGMENT_PREFIX.length())) + 1);
+        }
+        PersistentHashedIndex segment = new PersistentHashedIndex(SEGMENT_PREFIX + number);
+        segment.firstDocID = Integer.MAX_VALUE;
+        for (PostingsList postings : index.values()) {
+            segment.firstDocID = Math.min(segment.firstDocID, postings.get(0).docID);
+        }
+        // deletions of documents that were still in main memory move to the new segment
+        PersistentHashedIndex previous = segmentOf(segment.firstDocID);
+        int from = segment.firstDocID - previous.firstDocID;
+        for (int bit = previous.deleted.nextSetBit(from); bit >= 0; bit = previous.deleted.nextSetBit(bit + 1)) {
+            segment.deleted.set(bit - from);
+        }
+        previous.deleted.clear(from, Math.max(from, previous.deleted.length()));
+        segment.index = index;
+        segment.writeIndex(true);
+        segment.index = new HashMap<String,PostingsList>();
+        segments.add(segment);
+        writeDocInfo();
+        writeSegments();
+        index = new HashMap<String,PostingsList>();
+    }
+
+
+    /**
+     *  Calls <code>action</code> for every term in this segment together
+     *  with its postings.
+     */
+    void forEachTerm( BiConsumer<String,PostingsList> action ) throws IOException {
+        forEachRecord(record -> {
+            String[] parts = record.split(DELIMITER, 2);
+            if (parts.length == 2) {
+                action.accept(parts[0], PostingsList.fromString(parts[1]));
+            }
+        });
+    }
+
+
+    /**
+     *  Calls <code>action</code> for the data of every term in this
+     *  segment, which is the term and its postings as they are written.
+     */
+    private void forEachRecord( Consumer<String> action ) throws IOException {
+        // the dictionary is read in one go, the data file may have stale bytes at the end
+        byte[] dictionary = new byte[(int) dictionaryFile.length()];
+        dictionaryFile.seek(0);
+        dictionaryFile.readFully(dictionary);
+        ByteBuffer buffer = ByteBuffer.wrap(dictionary);
+        while (buffer.remaining() >= Entry.BYTES) {
+            long pointer = buffer.getLong();
+            int size = buffer.getInt();
+            buffer.getInt(); // df
+            if (pointer == 0 && size == 0) continue;
+            String record = readData(pointer, size);
+            if (record.contains(DELIMITER)) {
+                action.accept(record);
+            }
+        }
+    }
+
+
+    /**
+     *  Merges all segments into the main index and drops the postings
+     *  and doc info of superseded documents.
+     */
+    public void mergeSegments() {
+        if (segments.isEmpty() && !hasDeletions()) return;
+        generation++;
+        System.err.print( "Merging " + segments.size() + " segment(s)..." );
+        try {
+            index.clear();
+            ArrayList<PersistentHashedIndex> all = new ArrayList<PersistentHashedIndex>();
+            all.add(this);
+            all.addAll(segments);
+            for (PersistentHashedIndex segment : all) {
+                segment.forEachTerm((term, postings) -> {
+                    postings.list.removeIf(entry -> isDeleted(entry.docID));
+                    if (postings.size() == 0) return;
+                    PostingsList merged = index.get(term);
+                    if (merged == null) {
+                        index.put(term, postings);
+                    } else {
+                        merged.list.addAll(postings.list);
+                    }
+                });
+            }
+            for (Integer docID : new ArrayList<Integer>(docNames.keySet())) {
+                if (!isDeleted(docID)) continue;
+                docNames.remove(docID);
+                docLengths.remove(docID);
+                euclideanLengths.remove(docID);
+                docModified.remove(docID);
+                docHashes.remove(docID);
+            }
+            free = 0L;
+            writeIndex(false);
+            // the postings of the deleted documents are left behind the rewritten ones
+            dataFile.setLength(free);
+            dropSegments();
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+        index.clear();
+        System.err.println( "done!" );
+    }
+
+
+    /**
+     *  Gives every document the docID <code>newDocID[docID]</code> and
+     *  rewrites the postings and the doc info to match. The segments are
+     *  merged first, so deleted documents are gone and every posting is
+     *  in the main index.
+     */
+    public void renumber( int[] newDocID ) {
+        mergeSegments();
+        generation++;
+        System.err.print( "Renumbering " + docNames.size() + " documents..." );
+        try {
+            index.clear();
+            forEachTerm((term, postings) -> {
+                for (PostingsEntry entry : postings.list) {
+                    entry.docID = newDocID[entry.docID];
+                }
+                postings.list.sort((a, b) -> Integer.compare(a.docID, b.docID));
+                index.put(term, postings);
+            });
+            renumber(docNames, newDocID);
+            renumber(docLengths, newDocID);
+            renumber(euclideanLengths, newDocID);
+            renumber(docModified, newDocID);
+            renumber(docHashes, newDocID);
+            free = 0L;
+            writeIndex(false);
+            dataFile.setLength(free);
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+        index.clear();
+        System.err.println( "done!" );
+    }
+
+
+    /**
+     *  Changes the docIDs of a document table to <code>newDocID[docID]</code>.
+     */
+    private static <V> void renumber( HashMap<Integer,V> table, int[] newDocID ) {
+        HashMap<Integer,V> old = new HashMap<Integer,V>(table);
+        table.clear();
+        for (Map.Entry<Integer,V> entry : old.entrySet()) {
+            table.put(newDocID[entry.getKey()], entry.getValue());
+        }
+    }
+
+
+    /**
+     *  Closes and removes all segment files, and clears the deletion bitmaps.
+     */
+    private void dropSegments() throws IOException {
+        for (PersistentHashedIndex segment : segments) {
+            segment.dictionaryFile.close();
+            segment.dataFile.close();
+            new File( INDEXDIR + "/" + DICTIONARY_FNAME + segment.suffix ).delete();
+            new File( INDEXDIR + "/" + DATA_FNAME + segment.suffix ).delete();
+            new File( INDEXDIR + "/" + DELETED_FNAME + segment.suffix ).delete();
+        }
+        segments.clear();
+        deleted.clear();
+        deletedDocs.clear();
+        writeSegments();
+    }
+
+
     /**
      *  Write index to file after indexing is done.
      */
     public void cleanup() {
+        generation++;
         System.err.println( index.keySet().size() + " unique words" );
         System.err.print( "Writing index to disk..." );
-        writeIndex(false);
+        if (incremental) {
+            try {
+                writeSegment();
+            } catch ( IOException e ) {
+                e.printStackTrace();
+            }
+        } else {
+            writeIndex(false);
+            try {
+                dropSegments();
+            } catch ( IOException e ) {
+                e.printStackTrace();
+            }
+        }
         System.err.println( "done!" );
     }
 }
\ No newline at end of file
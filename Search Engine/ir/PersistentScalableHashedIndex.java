@@ -76,6 +76,7 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex impleme
 
     @Override
     public void cleanup() {
+        generation++;
         executeCleanupProcess();
     }
 
@@ -326,7 +327,7 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex impleme
             mergedDict = new RandomAccessFile(INDEXDIR + "/" + DICTIONARY_FNAME + mergedSuffix, "rw");
             mergedData = new BufferedWriter(new FileWriter(INDEXDIR + "/" + DATA_FNAME + mergedSuffix));
             
-            mergedDict.setLength(TABLESIZE * (Long.BYTES + Integer.BYTES));
+            mergedDict.setLength(TABLESIZE * Entry.BYTES);
         }
     
         private void mergeDataFromFirstFile() throws IOException {
@@ -358,7 +359,7 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex impleme
     
         private String findInSecondFile(String token) throws IOException {
             long hash = hashFunction(token);
-            long dictPointer = hash * (Long.BYTES + Integer.BYTES);
+            long dictPointer = hash * Entry.BYTES;
             Entry entry = readEntry(dict2, dictPointer);
             
             while (entry != null) {
@@ -429,13 +430,14 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex impleme
             int size = dataString.getBytes(StandardCharsets.UTF_8).length;
             
             mergedData.write(dataString);
-            writeEntry(mergedDict, new Entry(freePointer, size), dictPointer);
+            int df = countPostings(dataLine.split(DELIMITER, 2)[1]);
+            writeEntry(mergedDict, new Entry(freePointer, size, df), dictPointer);
             freePointer += size;
         }
     
         private long findFreeDictionarySlot(String token) throws IOException {
             long hash = hashFunction(token);
-            long dictPointer = hash * (Long.BYTES + Integer.BYTES);
+            long dictPointer = hash * Entry.BYTES;
             
             while (readEntry(mergedDict, dictPointer) != null) {
                 dictPointer = nextDictPosition(dictPointer);
@@ -444,8 +446,8 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex impleme
         }
     
         private long nextDictPosition(long current) {
-            current += (Long.BYTES + Integer.BYTES);
-            return current >= TABLESIZE * (Long.BYTES + Integer.BYTES) ? 0 : current;
+            current += Entry.BYTES;
+            return current >= TABLESIZE * Entry.BYTES ? 0 : current;
         }
     
         private void addRemainingFromSecondFile() throws IOException {
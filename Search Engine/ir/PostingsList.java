@@ -15,12 +15,20 @@ public class PostingsList {
     /** The postings list */
     public ArrayList<PostingsEntry> list = new ArrayList<PostingsEntry>();
 
+    /** Number of matching documents, if the list only holds the best ones. */
+    int totalHits = -1;
+
 
     /** Number of postings in this list. */
     public int size() {
     return list.size();
     }
 
+    /** Number of documents that matched the query, which may be more than size(). */
+    public int totalHits() {
+    return Math.max( totalHits, list.size() );
+    }
+
     /** Returns the ith posting. */
     public PostingsEntry get( int i ) {
     return list.get( i );
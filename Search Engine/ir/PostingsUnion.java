@@ -0,0 +1,173 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+/**
+ *   A cursor over the union of several postings lists, such as the
+ *   expansions of a wildcard term, in increasing docID order.
+ *
+ *   The lists are not merged up front. Each list has a cursor, and the
+ *   cursors are kept in a heap keyed on their docID, so moving to the next
+ *   document costs O(log k) per list that is at the current document. The
+ *   positions of the lists at a document are only merged when the entry
+ *   of the document is asked for.
+ */
+class PostingsUnion {
+
+    /** The lists of the union, without empty ones. */
+    private final ArrayList<PostingsList> lists = new ArrayList<PostingsList>();
+
+    /** The position of the cursor of each list. */
+    private final int[] pos;
+
+    /** The cursors that are not at the current document, by docID. */
+    private final PriorityQueue<Integer> heap;
+
+    /** The cursors at the current document. */
+    private final ArrayList<Integer> active = new ArrayList<Integer>();
+
+    /** The current document, -1 before the first and Integer.MAX_VALUE after the last. */
+    private int docID = -1;
+
+    /** The entry of the current document, merged on first use. */
+    private PostingsEntry entry = null;
+
+    /** The total number of postings, an upper bound on the df of the union. */
+    private int size = 0;
+
+
+    /**
+     *  Creates a cursor over the union of the lists, null lists are skipped.
+     */
+    PostingsUnion( List<PostingsList> postingsLists ) {
+        for (PostingsList list : postingsLists) {
+            if (list == null || list.size() == 0) continue;
+            lists.add(list);
+            size += list.size();
+        }
+        pos = new int[lists.size()];
+        heap = new PriorityQueue<Integer>(Math.max(1, lists.size()), (a, b) -> Integer.compare(currentDocID(a), currentDocID(b)));
+        for (int c = 0; c < lists.size(); c++) {
+            heap.add(c);
+        }
+    }
+
+
+    /** Returns the docID at the cursor of a list. */
+    private int currentDocID( int c ) {
+        return lists.get(c).get(pos[c]).docID;
+    }
+
+
+    /** Returns the total number of postings of the lists. */
+    int size() {
+        return size;
+    }
+
+
+    /** Returns the current document. */
+    int docID() {
+        return docID;
+    }
+
+
+    /**
+     *  Moves to the next document. Returns false if there is none.
+     */
+    boolean next() {
+        for (int c : active) {
+            if (++pos[c] < lists.get(c).size()) heap.add(c);
+        }
+        return collect();
+    }
+
+
+    /**
+     *  Moves to the first document at or after <code>target</code>, or
+     *  stays if the current document is already there. Returns false if
+     *  there is no such document.
+     */
+    boolean advance( int target ) {
+        if (docID >= target) {
+            return docID != Integer.MAX_VALUE;
+        }
+        for (int c : active) {
+            pos[c] = Searcher.gallop(lists.get(c), pos[c] + 1, target);
+            if (pos[c] < lists.get(c).size()) heap.add(c);
+        }
+        while (!heap.isEmpty() && currentDocID(heap.peek()) < target) {
+            int c = heap.poll();
+            pos[c] = Searcher.gallop(lists.get(c), pos[c] + 1, target);
+            if (pos[c] < lists.get(c).size()) heap.add(c);
+        }
+        return collect();
+    }
+
+
+    /**
+     *  Takes the cursors with the smallest docID off the heap and makes
+     *  their document the current one.
+     */
+    private boolean collect() {
+        active.clear();
+        entry = null;
+        if (heap.isEmpty()) {
+            docID = Integer.MAX_VALUE;
+            return false;
+        }
+        docID = currentDocID(heap.peek());
+        while (!heap.isEmpty() && currentDocID(heap.peek()) == docID) {
+            active.add(heap.poll());
+        }
+        return true;
+    }
+
+
+    /**
+     *  Returns the sum of the scores of the lists at the current document,
+     *  without merging their positions.
+     */
+    double score() {
+        double score = 0;
+        for (int c : active) {
+            score += lists.get(c).get(pos[c]).score;
+        }
+        return score;
+    }
+
+
+    /**
+     *  Returns the entry of the current document, with the sum of the
+     *  scores and the positions of all lists in increasing order. With
+     *  one list at the document, its own entry is returned.
+     */
+    PostingsEntry entry() {
+        if (entry != null) {
+            return entry;
+        }
+        if (active.size() == 1) {
+            entry = lists.get(active.get(0)).get(pos[active.get(0)]);
+            return entry;
+        }
+        entry = new PostingsEntry(docID);
+        double score = 0;
+        for (int c : active) {
+            PostingsEntry e = lists.get(c).get(pos[c]);
+            score += e.score;
+            entry.addOffsets(e.getOffsets());
+        }
+        entry.setScore(score);
+        // the positions are sorted runs, which the merge sort merges in linear steps per run
+        Collections.sort(entry.getOffsets());
+        return entry;
+    }
+}
@@ -0,0 +1,14 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+package ir;
+
+/**
+ *  The ways ranked tf-idf queries can skip documents that
+ *  cannot make it to the top k.
+ */
+public enum PruningType {
+    NONE, WAND, BLOCK_MAX_WAND
+}
@@ -0,0 +1,319 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+
+/**
+ *   Accepts the terms that match a regular expression as a whole.
+ *
+ *   The expression is compiled to an NFA (Thompson's construction), and
+ *   a state of the automaton is the set of NFA states reached, so the DFA
+ *   is built by the subset construction as characters are read.
+ *
+ *   The syntax has literals, '.', character classes like [a-z] and
+ *   [^0-9], the escapes \d and \w, grouping with parentheses,
+ *   alternation with '|', and the repetitions '*', '+' and '?'. Any other
+ *   character after a backslash is taken literally.
+ */
+class RegexAutomaton extends TermAutomaton<BitSet> {
+
+    /** A state of the NFA. */
+    private static class State {
+        /** The character ranges of the edge to <code>next</code> (pairs of first and last), or null. */
+        char[] ranges;
+
+        /** True if the edge matches the characters outside the ranges. */
+        boolean negated;
+
+        /** The target of the character edge. */
+        int next = -1;
+
+        /** The targets of the empty edges. */
+        ArrayList<Integer> empty = new ArrayList<Integer>();
+
+        boolean matches( char c ) {
+            boolean inRanges = false;
+            for (int i = 0; i < ranges.length && !inRanges; i += 2) {
+                inRanges = ranges[i] <= c && c <= ranges[i + 1];
+            }
+            return inRanges != negated;
+        }
+    }
+
+    /** The states of the NFA. */
+    private final ArrayList<State> nfa = new ArrayList<State>();
+
+    /** The start and the accepting state of the NFA. */
+    private final int start, end;
+
+    /** The states from which the accepting state can be reached. */
+    private final BitSet live = new BitSet();
+
+    /** The empty-edge closure of each NFA state, computed on first use. */
+    private BitSet[] closures;
+
+    /** The expression being parsed, and the position of the parser in it. */
+    private final String regex;
+    private int pos = 0;
+
+
+    /**
+     *  Compiles a regular expression.
+     *
+     *  @throws IllegalArgumentException  If the expression is not valid.
+     */
+    RegexAutomaton( String regex ) {
+        this.regex = regex;
+        int[] fragment = alternation();
+        if (pos < regex.length()) {
+            throw new IllegalArgumentException("Unexpected '" + regex.charAt(pos) + "' at " + pos);
+        }
+        start = fragment[0];
+        end = fragment[1];
+        findLiveStates();
+        closures = new BitSet[nfa.size()];
+    }
+
+
+    /**
+     *  Marks the states that can reach the accepting state, so that a set
+     *  with none of them is known to be dead.
+     */
+    private void findLiveStates() {
+        ArrayList<ArrayList<Integer>> predecessors = new ArrayList<ArrayList<Integer>>();
+        for (int s = 0; s < nfa.size(); s++) {
+            predecessors.add(new ArrayList<Integer>());
+        }
+        for (int s = 0; s < nfa.size(); s++) {
+            State state = nfa.get(s);
+            if (state.next >= 0) predecessors.get(state.next).add(s);
+            for (int t : state.empty) {
+                predecessors.get(t).add(s);
+            }
+        }
+        ArrayList<Integer> stack = new ArrayList<Integer>();
+        live.set(end);
+        stack.add(end);
+        while (!stack.isEmpty()) {
+            for (int s : predecessors.get(stack.remove(stack.size() - 1))) {
+                if (!live.get(s)) {
+                    live.set(s);
+                    stack.add(s);
+                }
+            }
+        }
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /** Adds a state and returns its number. */
+    private int newState() {
+        nfa.add(new State());
+        return nfa.size() - 1;
+    }
+
+
+    /** Adds an empty edge. */
+    private void connect( int from, int to ) {
+        nfa.get(from).empty.add(to);
+    }
+
+
+    /**
+     *  Parses alternatives separated by '|'. Each part of the expression
+     *  is an NFA fragment, given by its start and end state.
+     */
+    private int[] alternation() {
+        int[] fragment = concatenation();
+        while (pos < regex.length() && regex.charAt(pos) == '|') {
+            pos++;
+            int[] other = concatenation();
+            int s = newState();
+            int e = newState();
+            connect(s, fragment[0]);
+            connect(s, other[0]);
+            connect(fragment[1], e);
+            connect(other[1], e);
+            fragment = new int[] { s, e };
+        }
+        return fragment;
+    }
+
+
+    /** Parses a sequence of repeated atoms. */
+    private int[] concatenation() {
+        int s = newState();
+        int[] fragment = { s, s };
+        while (pos < regex.length() && regex.charAt(pos) != '|' && regex.charAt(pos) != ')') {
+            int[] next = repetition();
+            connect(fragment[1], next[0]);
+            fragment[1] = next[1];
+        }
+        return fragment;
+    }
+
+
+    /** Parses an atom followed by any number of '*', '+' and '?'. */
+    private int[] repetition() {
+        int[] fragment = atom();
+        while (pos < regex.length() && "*+?".indexOf(regex.charAt(pos)) >= 0) {
+            char op = regex.charAt(pos++);
+            int s = newState();
+            int e = newState();
+            connect(s, fragment[0]);
+            connect(fragment[1], e);
+            if (op != '+') connect(s, e);
+            if (op != '?') connect(fragment[1], fragment[0]);
+            fragment = new int[] { s, e };
+        }
+        return fragment;
+    }
+
+
+    /** Parses a group, a character class or a single character. */
+    private int[] atom() {
+        char c = regex.charAt(pos++);
+        if (c == '(') {
+            int[] fragment = alternation();
+            if (pos >= regex.length() || regex.charAt(pos) != ')') {
+                throw new IllegalArgumentException("Missing ')'");
+            }
+            pos++;
+            return fragment;
+        }
+        if (c == '*' || c == '+' || c == '?') {
+            throw new IllegalArgumentException("Nothing to repeat at " + (pos - 1));
+        }
+        int s = newState();
+        int e = newState();
+        State state = nfa.get(s);
+        state.next = e;
+        if (c == '.') {
+            state.ranges = new char[0];
+            state.negated = true;
+        } else if (c == '[') {
+            parseClass(state);
+        } else if (c == '\\') {
+            state.ranges = escape();
+        } else {
+            state.ranges = new char[] { c, c };
+        }
+        return new int[] { s, e };
+    }
+
+
+    /** Parses a character class after its '['. */
+    private void parseClass( State state ) {
+        StringBuilder ranges = new StringBuilder();
+        if (pos < regex.length() && regex.charAt(pos) == '^') {
+            state.negated = true;
+            pos++;
+        }
+        boolean first = true;
+        while (pos < regex.length() && (regex.charAt(pos) != ']' || first)) {
+            first = false;
+            char c = regex.charAt(pos++);
+            if (c == '\\' && pos < regex.length()) {
+                ranges.append(escape());
+            } else if (pos + 1 < regex.length() && regex.charAt(pos) == '-' && regex.charAt(pos + 1) != ']') {
+                char last = regex.charAt(pos + 1);
+                if (last < c) {
+                    throw new IllegalArgumentException("Bad range " + c + "-" + last);
+                }
+                ranges.append(c).append(last);
+                pos += 2;
+            } else {
+                ranges.append(c).append(c);
+            }
+        }
+        if (pos >= regex.length()) {
+            throw new IllegalArgumentException("Missing ']'");
+        }
+        pos++;
+        state.ranges = ranges.toString().toCharArray();
+    }
+
+
+    /** Parses the character after a backslash and returns its ranges. */
+    private char[] escape() {
+        if (pos >= regex.length()) {
+            throw new IllegalArgumentException("Trailing '\\'");
+        }
+        char c = regex.charAt(pos++);
+        if (c == 'd') return new char[] { '0', '9' };
+        if (c == 'w') return new char[] { '0', '9', 'A', 'Z', '_', '_', 'a', 'z' };
+        return new char[] { c, c };
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Returns the set of live states reachable from a set by empty edges,
+     *  or null if none is live. The closure of each NFA state is computed
+     *  once.
+     */
+    private BitSet closure( BitSet set ) {
+        BitSet result = new BitSet(nfa.size());
+        for (int s = set.nextSetBit(0); s >= 0; s = set.nextSetBit(s + 1)) {
+            result.or(closure(s));
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+
+    /** Returns the live states reachable from a state by empty edges. */
+    private BitSet closure( int state ) {
+        if (closures[state] == null) {
+            BitSet set = new BitSet(nfa.size());
+            int[] stack = new int[nfa.size()];
+            int top = 0;
+            set.set(state);
+            stack[top++] = state;
+            while (top > 0) {
+                for (int t : nfa.get(stack[--top]).empty) {
+                    if (!set.get(t)) {
+                        set.set(t);
+                        stack[top++] = t;
+                    }
+                }
+            }
+            set.and(live);
+            closures[state] = set;
+        }
+        return closures[state];
+    }
+
+
+    protected BitSet startValue() {
+        BitSet set = new BitSet(nfa.size());
+        set.set(start);
+        return closure(set);
+    }
+
+
+    protected BitSet nextValue( BitSet value, char c ) {
+        BitSet next = new BitSet(nfa.size());
+        for (int s = value.nextSetBit(0); s >= 0; s = value.nextSetBit(s + 1)) {
+            State state = nfa.get(s);
+            if (state.ranges != null && state.matches(c)) {
+                next.set(state.next);
+            }
+        }
+        return closure(next);
+    }
+
+
+    protected boolean acceptsValue( BitSet value ) {
+        return value.get(end);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+
+/**
+ *   Caches the results of whole queries, so that a query that has been
+ *   asked before is answered without searching the index.
+ *
+ *   A query is keyed on its terms and weights, the query type, the
+ *   ranking type and the normalization type. The terms of intersection
+ *   and ranked queries are sorted, since their order does not change the
+ *   result. A result is kept as arrays of docIDs and scores, without the
+ *   positions, and a ranked result only holds the documents that have
+ *   been asked for so far.
+ *
+ *   The cache holds at most <code>capacity</code> documents in all. The
+ *   least recently used results are evicted to make room, and results of
+ *   more than a tenth of the capacity are not cached. Every result
+ *   remembers the generation of the index it was computed on, and is
+ *   dropped when it is looked up after the index has changed.
+ */
+class ResultCache {
+
+    /** A cached result. */
+    static class Result {
+        /** The documents of the result in order, and their scores. */
+        final int[] docIDs;
+        final double[] scores;
+
+        /** The number of matching documents, which may be more than are kept. */
+        final int totalHits;
+
+        /** The generation of the index when the result was computed. */
+        final long generation;
+
+        Result( PostingsList postings, long generation ) {
+            int n = postings == null ? 0 : postings.size();
+            docIDs = new int[n];
+            scores = new double[n];
+            for (int i = 0; i < n; i++) {
+                docIDs[i] = postings.get(i).docID;
+                scores[i] = postings.get(i).score;
+            }
+            totalHits = postings == null ? -1 : postings.totalHits();
+            this.generation = generation;
+        }
+
+        /** Returns true if the search returned null, i.e. nothing matched. */
+        boolean isNull() {
+            return totalHits < 0;
+        }
+
+        /** Returns true if all matching documents are kept. */
+        boolean isComplete() {
+            return docIDs.length >= totalHits;
+        }
+
+        /** Returns true if the first <code>k</code> documents of the result are kept. */
+        boolean covers( int k ) {
+            return isComplete() || docIDs.length >= k;
+        }
+
+        /**
+         *  Returns the documents ranked from+1 to to as a new list, or null
+         *  if the search returned null.
+         */
+        PostingsList slice( int from, int to ) {
+            if (isNull()) {
+                return null;
+            }
+            PostingsList postings = new PostingsList();
+            for (int i = from; i < Math.min(to, docIDs.length); i++) {
+                PostingsEntry entry = new PostingsEntry(docIDs[i]);
+                entry.setScore(scores[i]);
+                postings.add(entry);
+            }
+            postings.totalHits = totalHits;
+            return postings;
+        }
+    }
+
+
+    /** The cached results, the least recently used first. */
+    private final LinkedHashMap<String,Result> results = new LinkedHashMap<String,Result>(16, 0.75f, true);
+
+    /** The maximum number of documents in all cached results. */
+    private final int capacity;
+
+    /** The number of documents in all cached results. */
+    private long size = 0;
+
+    /** Lookups that were answered from the cache, and those that were not. */
+    private long hits = 0;
+    private long misses = 0;
+
+    /** Results dropped to make room, and because the index had changed. */
+    private long evictions = 0;
+    private long invalidations = 0;
+
+
+    /**
+     *  Creates a cache of at most <code>capacity</code> documents.
+     */
+    ResultCache( int capacity ) {
+        this.capacity = capacity;
+    }
+
+
+    /**
+     *  Returns the key of a query.
+     */
+    static String key( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType ) {
+        ArrayList<String> terms = new ArrayList<String>();
+        for (Query.QueryTerm queryTerm : query.queryterm) {
+            terms.add(queryTerm.term + " " + queryTerm.weight);
+        }
+        if (queryType == QueryType.INTERSECTION_QUERY || queryType == QueryType.RANKED_QUERY) {
+            Collections.sort(terms);
+        }
+        StringBuilder key = new StringBuilder();
+        key.append(queryType).append(' ');
+        if (queryType == QueryType.RANKED_QUERY) {
+            key.append(rankingType).append(' ').append(normType).append(' ');
+        }
+        for (String term : terms) {
+            key.append('\n').append(term);
+        }
+        return key.toString();
+    }
+
+
+    /**
+     *  Returns the cached result of a query, or null if there is none for
+     *  the current generation of the index. The lookup counts as a hit if
+     *  the result has its first <code>k</code> documents.
+     */
+    synchronized Result get( String key, long generation, int k ) {
+        Result result = results.get(key);
+        if (result != null && result.generation != generation) {
+            remove(key);
+            invalidations++;
+            result = null;
+        }
+        if (result != null && result.covers(k)) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return result;
+    }
+
+
+    /**
+     *  Caches the result of a query, replacing any earlier result, and
+     *  returns it. A result that is too large is returned without being
+     *  cached.
+     */
+    synchronized Result put( String key, PostingsList postings, long generation ) {
+        Result result = new Result(postings, generation);
+        if (result.docIDs.length > capacity / 10) {
+            return result;
+        }
+        remove(key);
+        results.put(key, result);
+        size += result.docIDs.length + 1;
+        Iterator<Result> lru = results.values().iterator();
+        while (size > capacity && lru.hasNext()) {
+            size -= lru.next().docIDs.length + 1;
+            lru.remove();
+            evictions++;
+        }
+        return result;
+    }
+
+
+    /** Removes the result of a query. */
+    private void remove( String key ) {
+        Result old = results.remove(key);
+        if (old != null) {
+            size -= old.docIDs.length + 1;
+        }
+    }
+
+
+    /** Removes all results, the statistics are kept. */
+    synchronized void clear() {
+        results.clear();
+        size = 0;
+    }
+
+
+    /** Returns the fraction of the lookups that were hits. */
+    synchronized double hitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+
+    /** Returns the hit rate and the number of lookups, results and documents. */
+    synchronized String stats() {
+        return String.format("Result cache: %.1f%% hit rate (%d hits, %d misses), %d results with %d documents, %d evicted, %d invalidated",
+                             100 * hitRate(), hits, misses, results.size(), size - results.size(), evictions, invalidations);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+
+/**
+ *   Accumulates term-at-a-time scores in a dense array indexed by docID.
+ *
+ *   The docIDs that got a score are remembered in a list, so that the
+ *   accumulator can be cleared in time proportional to the number of
+ *   matching documents rather than the size of the collection. One
+ *   accumulator is meant to be reused by all queries of a thread.
+ */
+class ScoreAccumulator {
+
+    /** The accumulated score of each docID. */
+    private double[] scores = new double[0];
+
+    /** True for the docIDs that are in the touched list. */
+    private boolean[] touched = new boolean[0];
+
+    /** The docIDs that got a score, in the order they were first seen. */
+    private int[] touchedDocIDs = new int[16];
+
+    /** Number of docIDs in the touched list. */
+    private int size = 0;
+
+
+    /**
+     *  Makes room for docIDs up to <code>maxDocID</code>.
+     */
+    void ensureCapacity( int maxDocID ) {
+        if (maxDocID >= scores.length) {
+            int capacity = Math.max(maxDocID + 1, 2 * scores.length);
+            scores = Arrays.copyOf(scores, capacity);
+            touched = Arrays.copyOf(touched, capacity);
+        }
+    }
+
+
+    /**
+     *  Adds to the score of a document.
+     */
+    void add( int docID, double score ) {
+        if (docID >= scores.length) {
+            ensureCapacity(docID);
+        }
+        if (!touched[docID]) {
+            touched[docID] = true;
+            if (size == touchedDocIDs.length) {
+                touchedDocIDs = Arrays.copyOf(touchedDocIDs, 2 * size);
+            }
+            touchedDocIDs[size++] = docID;
+        }
+        scores[docID] += score;
+    }
+
+
+    /** Number of documents that got a score. */
+    int size() {
+        return size;
+    }
+
+
+    /** Returns the ith document that got a score. */
+    int docID( int i ) {
+        return touchedDocIDs[i];
+    }
+
+
+    /** Returns the accumulated score of a document. */
+    double score( int docID ) {
+        return docID < scores.length ? scores[docID] : 0;
+    }
+
+
+    /**
+     *  Resets the scores of the touched documents.
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            scores[touchedDocIDs[i]] = 0;
+            touched[touchedDocIDs[i]] = false;
+        }
+        size = 0;
+    }
+}
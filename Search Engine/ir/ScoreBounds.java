@@ -0,0 +1,140 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.util.Map;
+
+
+/**
+ *   Upper bounds on the score a term can contribute to a document, used
+ *   to skip documents that cannot make the top k of a ranked query.
+ *
+ *   The tf-idf contribution of a term is tf * idf * weight / length, where
+ *   only tf / length depends on the document. For every normalization type
+ *   the largest tf / length of the whole postings list is stored, and also
+ *   the largest one of each block of BLOCK_SIZE consecutive postings. A
+ *   block is identified by the docID of its last posting.
+ */
+public class ScoreBounds {
+
+    /** Number of postings in a block. */
+    static final int BLOCK_SIZE = 64;
+
+    /** Number of postings the bounds were computed from. */
+    int df;
+
+    /** The largest tf / length of the postings list, for each normalization type. */
+    double[] maxRatio;
+
+    /** The docID of the last posting in each block. */
+    int[] blockLastDocID;
+
+    /** The largest tf / length in each block, for each normalization type. */
+    double[][] blockMaxRatio;
+
+
+    /**
+     *  Computes the bounds of a postings list sorted by docID. Documents
+     *  without a known length get no score and are left out.
+     */
+    public static ScoreBounds of( PostingsList postings, Index index ) {
+        int types = NormalizationType.values().length;
+        int blocks = (postings.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        ScoreBounds bounds = new ScoreBounds();
+        bounds.df = postings.size();
+        bounds.maxRatio = new double[types];
+        bounds.blockLastDocID = new int[blocks];
+        bounds.blockMaxRatio = new double[types][blocks];
+        for (int i = 0; i < postings.size(); i++) {
+            PostingsEntry entry = postings.get(i);
+            int block = i / BLOCK_SIZE;
+            bounds.blockLastDocID[block] = entry.docID;
+            for (NormalizationType normType : NormalizationType.values()) {
+                double length;
+                if (normType == NormalizationType.EUCLIDEAN) {
+                    length = index.euclideanLengths.getOrDefault(entry.docID, 0.0);
+                } else {
+                    length = index.docLengths.getOrDefault(entry.docID, 0);
+                }
+                if (length == 0) continue;
+                double ratio = entry.score / length;
+                int t = normType.ordinal();
+                bounds.blockMaxRatio[t][block] = Math.max(bounds.blockMaxRatio[t][block], ratio);
+                bounds.maxRatio[t] = Math.max(bounds.maxRatio[t], ratio);
+            }
+        }
+        return bounds;
+    }
+
+
+    /** Number of blocks. */
+    int blocks() {
+        return blockLastDocID.length;
+    }
+
+
+    /**
+     *  Writes the bounds of all terms to a file.
+     */
+    public static void write( Map<String,ScoreBounds> bounds, String filename ) {
+        try (DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( filename )))) {
+            out.writeInt( bounds.size() );
+            out.writeInt( NormalizationType.values().length );
+            for (Map.Entry<String,ScoreBounds> entry : bounds.entrySet()) {
+                ScoreBounds b = entry.getValue();
+                out.writeUTF( entry.getKey() );
+                out.writeInt( b.df );
+                out.writeInt( b.blocks() );
+                for (int t = 0; t < b.maxRatio.length; t++) {
+                    out.writeDouble( b.maxRatio[t] );
+                }
+                for (int i = 0; i < b.blocks(); i++) {
+                    out.writeInt( b.blockLastDocID[i] );
+                    for (int t = 0; t < b.maxRatio.length; t++) {
+                        out.writeDouble( b.blockMaxRatio[t][i] );
+                    }
+                }
+            }
+        } catch ( IOException e ) {
+            System.err.println( "Error saving score bounds: " + e.getMessage() );
+        }
+    }
+
+
+    /**
+     *  Reads the bounds written by <code>write</code>.
+     */
+    public static void read( Map<String,ScoreBounds> bounds, String filename ) {
+        File file = new File( filename );
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file )))) {
+            int terms = in.readInt();
+            int types = in.readInt();
+            for (int n = 0; n < terms; n++) {
+                String term = in.readUTF();
+                ScoreBounds b = new ScoreBounds();
+                b.df = in.readInt();
+                int blocks = in.readInt();
+                b.maxRatio = new double[types];
+                b.blockLastDocID = new int[blocks];
+                b.blockMaxRatio = new double[types][blocks];
+                for (int t = 0; t < types; t++) {
+                    b.maxRatio[t] = in.readDouble();
+                }
+                for (int i = 0; i < blocks; i++) {
+                    b.blockLastDocID[i] = in.readInt();
+                    for (int t = 0; t < types; t++) {
+                        b.blockMaxRatio[t][i] = in.readDouble();
+                    }
+                }
+                bounds.put( term, b );
+            }
+        } catch ( IOException e ) {
+            System.err.println( "Error loading score bounds: " + e.getMessage() );
+        }
+    }
+}
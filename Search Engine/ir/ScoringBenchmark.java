@@ -0,0 +1,145 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.HashMap;
+import java.util.Random;
+
+
+/**
+ *   Measures the cost per posting of term-at-a-time score accumulation,
+ *   with boxed HashMap accumulators and length lookups as the searcher
+ *   used to do, and with the dense arrays of ScoreAccumulator.
+ *
+ *   Usage: java ir.ScoringBenchmark [-n numberOfDocs] [-t numberOfTerms] [-df postingsPerTerm] [-r rounds]
+ */
+public class ScoringBenchmark {
+
+    int numberOfDocs = 20000;
+    int numberOfTerms = 4;
+    int postingsPerTerm = 8000;
+    int rounds = 200;
+
+    /** The docIDs and term frequencies of the postings of each term. */
+    int[][] docIDs;
+    double[][] tfs;
+
+    HashMap<Integer,Integer> docLengths = new HashMap<Integer,Integer>();
+    double[] lengths;
+
+    /** Keeps the JIT from removing the benchmarked code. */
+    double sink = 0;
+
+
+    /**
+     *  Creates random postings lists sorted by docID.
+     */
+    void setup() {
+        Random random = new Random(1);
+        lengths = new double[numberOfDocs];
+        for (int docID = 0; docID < numberOfDocs; docID++) {
+            int length = 50 + random.nextInt(2000);
+            docLengths.put(docID, length);
+            lengths[docID] = length;
+        }
+        docIDs = new int[numberOfTerms][];
+        tfs = new double[numberOfTerms][];
+        for (int t = 0; t < numberOfTerms; t++) {
+            docIDs[t] = random.ints(0, numberOfDocs).distinct().limit(postingsPerTerm).sorted().toArray();
+            tfs[t] = new double[docIDs[t].length];
+            for (int j = 0; j < tfs[t].length; j++) {
+                tfs[t][j] = 1 + random.nextInt(10);
+            }
+        }
+    }
+
+
+    /** One query with HashMap accumulators. */
+    double hashMapQuery() {
+        HashMap<Integer,Double> scores = new HashMap<Integer,Double>();
+        for (int t = 0; t < numberOfTerms; t++) {
+            double idf = Math.log((double) numberOfDocs / docIDs[t].length);
+            for (int j = 0; j < docIDs[t].length; j++) {
+                int docID = docIDs[t][j];
+                double tf_idf = tfs[t][j] * idf / docLengths.get(docID);
+                if (scores.containsKey(docID)) {
+                    scores.replace(docID, scores.get(docID) + tf_idf);
+                } else {
+                    scores.put(docID, tf_idf);
+                }
+            }
+        }
+        double sum = 0;
+        for (double score : scores.values()) {
+            sum += score;
+        }
+        return sum;
+    }
+
+
+    /** One query with a reused ScoreAccumulator. */
+    double arrayQuery( ScoreAccumulator scores ) {
+        for (int t = 0; t < numberOfTerms; t++) {
+            double idf = Math.log((double) numberOfDocs / docIDs[t].length);
+            for (int j = 0; j < docIDs[t].length; j++) {
+                int docID = docIDs[t][j];
+                scores.add(docID, tfs[t][j] * idf / lengths[docID]);
+            }
+        }
+        double sum = 0;
+        for (int d = 0; d < scores.size(); d++) {
+            sum += scores.score(scores.docID(d));
+        }
+        scores.clear();
+        return sum;
+    }
+
+
+    /**
+     *  Runs both variants, first to warm up and then measured, and prints
+     *  the time per posting.
+     */
+    void run() {
+        setup();
+        ScoreAccumulator accumulator = new ScoreAccumulator();
+        long postings = (long) numberOfTerms * postingsPerTerm * rounds;
+        for (int pass = 0; pass < 2; pass++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) sink += hashMapQuery();
+            long hashMapTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) sink += arrayQuery(accumulator);
+            long arrayTime = System.nanoTime() - start;
+            if (pass == 1) {
+                System.out.println(String.format("HashMap accumulator: %.2f ns/posting", (double) hashMapTime / postings));
+                System.out.println(String.format("Array accumulator:   %.2f ns/posting", (double) arrayTime / postings));
+            }
+        }
+    }
+
+
+    public static void main( String[] args ) {
+        ScoringBenchmark benchmark = new ScoringBenchmark();
+        int i = 0;
+        while (i + 1 < args.length) {
+            if ("-n".equals(args[i])) {
+                benchmark.numberOfDocs = Integer.parseInt(args[i + 1]);
+            } else if ("-t".equals(args[i])) {
+                benchmark.numberOfTerms = Integer.parseInt(args[i + 1]);
+            } else if ("-df".equals(args[i])) {
+                benchmark.postingsPerTerm = Integer.parseInt(args[i + 1]);
+            } else if ("-r".equals(args[i])) {
+                benchmark.rounds = Integer.parseInt(args[i + 1]);
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+            i += 2;
+        }
+        benchmark.postingsPerTerm = Math.min(benchmark.postingsPerTerm, benchmark.numberOfDocs);
+        benchmark.run();
+    }
+}
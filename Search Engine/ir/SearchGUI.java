@@ -68,6 +68,7 @@ public class SearchGUI extends JFrame {
     JRadioButtonMenuItem intersectionItem = new JRadioButtonMenuItem( "Intersection query" );
     JRadioButtonMenuItem phraseItem = new JRadioButtonMenuItem( "Phrase query" );
     JRadioButtonMenuItem rankedItem = new JRadioButtonMenuItem( "Ranked retrieval" );
+    JRadioButtonMenuItem proximityItem = new JRadioButtonMenuItem( "Proximity query (near/k, onear/k)" );
     JRadioButtonMenuItem tfidfItem = new JRadioButtonMenuItem( "tf-idf" );
     JRadioButtonMenuItem pagerankItem = new JRadioButtonMenuItem( "PageRank" );
     JRadioButtonMenuItem combinationItem = new JRadioButtonMenuItem( "Combination" );
@@ -110,6 +111,7 @@ public class SearchGUI extends JFrame {
         optionsMenu.add( intersectionItem );
         optionsMenu.add( phraseItem );
         optionsMenu.add( rankedItem );
+        optionsMenu.add( proximityItem );
         rankingMenu.add( tfidfItem );
         rankingMenu.add( pagerankItem );
         rankingMenu.add( combinationItem );
@@ -119,6 +121,7 @@ public class SearchGUI extends JFrame {
         queries.add( intersectionItem );
         queries.add( phraseItem );
         queries.add( rankedItem );
+        queries.add( proximityItem );
         ranking.add( tfidfItem );
         ranking.add( pagerankItem );
         ranking.add( combinationItem );
@@ -175,9 +178,26 @@ public class SearchGUI extends JFrame {
                 // (this might corrupt the index).
                 long startTime = System.currentTimeMillis();
                 synchronized ( engine.indexLock ) {
-                    results = engine.searcher.search( query, queryType, rankingType, normType );
+                    results = engine.searcher.search( query, queryType, rankingType, normType, MAX_RESULTS );
                 }
                 long elapsedTime = System.currentTimeMillis() - startTime;
+                if ( engine.searcher.resultCache != null ) {
+                    System.err.println( engine.searcher.resultCache.stats() );
+                }
+                if ( engine.searcher.intersectionCache != null && queryType == QueryType.INTERSECTION_QUERY ) {
+                    System.err.println( engine.searcher.intersectionCache.stats() );
+                }
+                if ( engine.searcher.pruningType != PruningType.NONE && queryType == QueryType.RANKED_QUERY && rankingType == RankingType.TF_IDF ) {
+                    System.err.println( engine.searcher.pruningStats() );
+                }
+                if ( engine.searcher.impactIndex != null && queryType == QueryType.RANKED_QUERY && rankingType == RankingType.TF_IDF ) {
+                    System.err.println( engine.searcher.impactStats() );
+                }
+                // a cached answer didn't run HITS, the stats are of an earlier query
+                if ( engine.searcher.hitsRanker != null && queryType == QueryType.RANKED_QUERY && rankingType == RankingType.HITS
+                     && !engine.searcher.answeredFromCache ) {
+                    System.err.println( engine.searcher.hitsRanker.stats() );
+                }
                 // Display the first few results + a button to see all results.
                 //
                 // We don't want to show all results directly since the displaying itself
@@ -241,6 +261,13 @@ public class SearchGUI extends JFrame {
             };
         rankedItem.addActionListener( setRankedQuery );
 
+        Action setProximityQuery = new AbstractAction() {
+            public void actionPerformed( ActionEvent e ) {
+                queryType = QueryType.PROXIMITY_QUERY;
+            }
+            };
+        proximityItem.addActionListener( setProximityQuery );
+
         Action setTfidfRanking = new AbstractAction() {
             public void actionPerformed( ActionEvent e ) {
                 rankingType = RankingType.TF_IDF;
@@ -308,7 +335,13 @@ public class SearchGUI extends JFrame {
      *  @param elapsedTime Shows how long time it took to compute the results.
      */
     void displayResults( int maxResultsToDisplay, double elapsedTime ) {
-        displayInfoText( String.format( "Found %d matching document(s) in %.3f seconds", results.size(), elapsedTime ));
+        // Ranked queries only return the best results, fetch the next ones when needed.
+        if ( maxResultsToDisplay > results.size() && results.totalHits() > results.size() ) {
+            synchronized ( engine.indexLock ) {
+                results.list.addAll( engine.searcher.nextPage( maxResultsToDisplay - results.size() ).list );
+            }
+        }
+        displayInfoText( String.format( "Found %d matching document(s) in %.3f seconds", results.totalHits(), elapsedTime ));
         box = new JCheckBox[maxResultsToDisplay];
         int i;
         for ( i=0; i<results.size() && i<maxResultsToDisplay; i++ ) {
@@ -382,7 +415,7 @@ public class SearchGUI extends JFrame {
             resultWindow.add( result );
         }
         // If there were many results, give the user an option to see all of them.
-        if ( i<results.size() ) {
+        if ( i<results.totalHits() ) {
             JPanel actionButtons = new JPanel();
             actionButtons.setLayout(new BoxLayout(actionButtons, BoxLayout.X_AXIS));
             actionButtons.setAlignmentX(Component.LEFT_ALIGNMENT);
@@ -400,12 +433,12 @@ public class SearchGUI extends JFrame {
 
             actionButtons.add(Box.createRigidArea(new Dimension(5,0)));
 
-            JButton displayAllBut = new JButton( "Display all " + results.size() + " results" );
+            JButton displayAllBut = new JButton( "Display all " + results.totalHits() + " results" );
             displayAllBut.setFont( resultFont );
             actionButtons.add( displayAllBut );
             Action displayAll = new AbstractAction() {
                 public void actionPerformed( ActionEvent e ) {
-                    displayResults( results.size(), elapsedTime );
+                    displayResults( results.totalHits(), elapsedTime );
                 }
             };
             displayAllBut.addActionListener( displayAll );
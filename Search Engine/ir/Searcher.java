@@ -7,15 +7,16 @@
 
 package ir;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -30,51 +31,127 @@ public class Searcher {
     KGramIndex kgIndex;
 
     // for the 2.8 part
-    HITSRanker hitsRanker;
+    /** The link graph for HITS ranking, or null if none has been loaded. */
+    HITSRanker hitsRanker = null;
 
-    /** A file that stores all the pagerank stores, added for 2.5 */
-    private HashMap<Integer, Double> pagerankMap = new HashMap<>();
+    /** HITS starts from this many documents with the best tf-idf scores, 0 for all matching documents. */
+    int hitsRootSize = 200;
+
+    /** The PageRank of each document, or null if no scores have been loaded. */
+    PageRankScores pageranks = null;
+
+    /** Terms with at least this many postings are kept as DocIdSets for boolean queries. */
+    static final int DOCIDSET_MIN_POSTINGS = 1024;
+
+    /** Postings lists this many times longer than the other one are searched by galloping. */
+    static final int GALLOP_RATIO = 16;
+
+    /** Window of proximity queries without a near/k or onear/k operator. */
+    static final int DEFAULT_PROXIMITY = 5;
+
+    /** The operator of a proximity query, onear/k keeps the terms in query order. */
+    private static final Pattern PROXIMITY_OPERATOR = Pattern.compile("(o?)near/(\\d+)");
+
+    /** DocIdSets of the frequent terms, filled on first use. */
+    private HashMap<String, DocIdSet> docIdSets = new HashMap<>();
+
+    /** Number of documents and index generation when the DocIdSets were built, they are dropped when either changes. */
+    private int docIdSetsDocCount = -1;
+    private long docIdSetsGeneration = -1;
+
+    /** Score accumulators for term-at-a-time scoring, one per thread. */
+    private static final ThreadLocal<ScoreAccumulator> accumulators = ThreadLocal.withInitial(ScoreAccumulator::new);
+
+    /** Document lengths for each normalization type, indexed by docID. */
+    private double[] wordLengths;
+    private double[] euclideanLengths;
+
+    /** Number of documents and index generation when the length arrays were built, they are rebuilt when either changes. */
+    private int lengthsDocCount = -1;
+    private long lengthsGeneration = -1;
+
+    /** How ranked tf-idf queries skip the documents that can't make the top k. */
+    PruningType pruningType = PruningType.BLOCK_MAX_WAND;
+
+    /** First tier of champion lists for ranked queries, or null if it isn't used. */
+    ChampionLists championLists = null;
+
+    /** Impact-ordered layout for long ranked queries, or null if it isn't used. */
+    ImpactIndex impactIndex = null;
+
+    /** The vocabulary with a suffix array for wildcard terms, built on first use. */
+    private TermDictionary termDictionary = null;
+
+    /** The terms added since the dictionary was built, in a dictionary of their own, or null if there are none. */
+    private TermDictionary newTermDictionary = null;
+
+    /** The new terms are merged into the dictionary once they are more than this part of it. */
+    static final int NEW_TERMS_FRACTION = 10;
+
+    /** Number of documents and index generation when the dictionary was read from the index, without a k-gram index. */
+    private int dictionaryDocCount = -1;
+    private long dictionaryGeneration = -1;
+
+    /** Wildcard terms of ranked queries are expanded to at most this many terms. */
+    int wildcardExpansionLimit = 50;
+
+    /** Index of adjacent word pairs for phrase queries, or null if it isn't used. */
+    BiwordIndex biwordIndex = null;
+
+    /** Ranked tf-idf queries with at least this many terms are evaluated score-at-a-time. */
+    static final int IMPACT_MIN_TERMS = 8;
+
+    /** Maximum number of postings a score-at-a-time query processes. */
+    long postingBudget = 100000;
+
+    /** WAND queries, the postings in their lists and the postings they scored. */
+    private long wandQueries = 0;
+    private long wandTotalPostings = 0;
+    private long wandScoredPostings = 0;
+
+    /** Score-at-a-time queries, those that reached the posting budget, and the postings they processed. */
+    private long impactQueries = 0;
+    private long impactExhausted = 0;
+    private long impactPostings = 0;
+
+    /** Results of earlier queries, or null if they aren't cached. */
+    ResultCache resultCache = null;
+
+    /** True if the last search was answered from the result cache. */
+    boolean answeredFromCache = false;
+
+    /** Documents of frequent term pairs for intersection queries, or null if they aren't cached. */
+    IntersectionCache intersectionCache = null;
+
+    /** The last ranked query, kept so that the next page of results can be fetched. */
+    private Query lastRankedQuery;
+    private RankingType lastRankingType;
+    private NormalizationType lastNormType;
+
+    /** Number of results of the last ranked query that have been returned so far. */
+    private int lastRankedCount = 0;
     
     /** Constructor */
     public Searcher( Index index, KGramIndex kgIndex ) {
         this.index = index;
         this.kgIndex = kgIndex;
-        hitsRanker = new HITSRanker("C:\\Users\\andre\\Desktop\\DD2477\\assignment2\\pagerank\\linksDavis.txt", "C:\\Users\\andre\\Desktop\\DD2477\\assignment2\\pagerank\\davisTitles.txt", index);
-    }
-
-    private void loadPageRankScores(String filename) {
-        HashMap<String, Integer> nameToDocID = new HashMap<>();
-        for (Map.Entry<Integer, String> entry : index.docNames.entrySet()) {
-            nameToDocID.put(entry.getValue(), entry.getKey());
-        }
-        
-        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) continue;
-                String[] parts = line.split("\\s+");
-                if (parts.length < 2) continue;
-                String realName = parts[0];
-                double score = Double.parseDouble(parts[1]);
-                if (nameToDocID.containsKey(realName)) {
-                    int docID = nameToDocID.get(realName);
-                    pagerankMap.put(docID, score);
-                } else {
-                    System.err.println("document \"" + realName + "\" not found in index");
-                }
-            }
-            System.err.println("Loaded PageRank scores for " + pagerankMap.size() + " documents");
-        } catch (IOException e) {
-            System.err.println("Error loading PageRank file: " + e.getMessage());
-        }
-}
+    }
 
     /**
      *  Searches the index for postings matching the query.
      *  @return A postings list representing the result of the query.
      */
     public PostingsList search( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType ) { 
+        return search( query, queryType, rankingType, normType, Integer.MAX_VALUE );
+    }
+
+    /**
+     *  Searches the index for postings matching the query. Ranked queries only
+     *  return the <code>k</code> best documents, the following ones can be
+     *  fetched with <code>nextPage</code>.
+     *  @return A postings list representing the result of the query.
+     */
+    public PostingsList search( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType, int k ) { 
         //
         //  REPLACE THE STATEMENT BELOW WITH YOUR CODE
         //
@@ -111,195 +188,429 @@ public class Searcher {
         } */
 
         //----------------------------------------------------------------------------
-        boolean isWildcard = query.queryterm.stream().anyMatch(qt -> qt.term.contains("*"));
-        
-        Query expandedQuery;
-        if (isWildcard && queryType == QueryType.RANKED_QUERY) {
-            expandedQuery = expandWildcardQuery(query);
-        } else {
-            expandedQuery = query;
+        if (queryType == QueryType.RANKED_QUERY) {
+            lastRankedQuery = query;
+            lastRankingType = rankingType;
+            lastNormType = normType;
+            lastRankedCount = k;
+        }
+        answeredFromCache = false;
+        if (resultCache == null) {
+            return execute(query, queryType, rankingType, normType, k);
+        }
+        String key = ResultCache.key(query, queryType, rankingType, normType);
+        long generation = index.generation();
+        ResultCache.Result cached = resultCache.get(key, generation, k);
+        if (cached != null && cached.covers(k)) {
+            answeredFromCache = true;
+            // only ranked queries other than HITS return the first k documents
+            boolean topK = queryType == QueryType.RANKED_QUERY && rankingType != RankingType.HITS;
+            return cached.slice(0, topK ? k : Integer.MAX_VALUE);
         }
-        
+        PostingsList results = execute(query, queryType, rankingType, normType, k);
+        resultCache.put(key, results, generation);
+        return results;
+    }
+
+    /**
+     *  Evaluates a query on the index, without the result cache.
+     */
+    private PostingsList execute( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType, int k ) {
+        boolean isWildcard = hasWildcard(query);
 
         if (queryType == QueryType.INTERSECTION_QUERY) {
             if (isWildcard) {
-                return intersectQueryWildcard(expandedQuery);
+                return intersectQueryWildcard(query);
             }
-            return intersectQuery(expandedQuery);
+            return intersectQuery(query);
 
         } else if (queryType == QueryType.PHRASE_QUERY) {
             if (isWildcard) {
-                return phraseQueryWildcard(expandedQuery);
+                return phraseQueryWildcard(query);
             } else 
-            return phraseQuery(expandedQuery);
+            return phraseQuery(query);
+
+        } else if (queryType == QueryType.PROXIMITY_QUERY) {
+            return proximityQuery(query);
 
         } else if (queryType == QueryType.RANKED_QUERY) {
-            return rankedQuery(expandedQuery, rankingType, normType);
+            return rankedQuery(query, rankingType, normType, k, 0);
         }
 
         return null;
     }
 
-    private Query expandWildcardQuery(Query originalQuery) {
-        Query expandedQuery = new Query();
-        for (Query.QueryTerm qt : originalQuery.queryterm) {
-            if (qt.term.contains("*")) {
-                List<String> expandedTerms = expandWildcardTerm(qt.term, kgIndex);
-                for (String term : expandedTerms) {
-                    expandedQuery.queryterm.add(expandedQuery.new QueryTerm(term, qt.weight));
+    /**
+     *  Returns the next <code>pageSize</code> results of the last ranked query.
+     */
+    public PostingsList nextPage( int pageSize ) {
+        if (lastRankedQuery == null) {
+            return new PostingsList();
+        }
+        int skip = lastRankedCount;
+        lastRankedCount = (int) Math.min(Integer.MAX_VALUE, (long) skip + pageSize);
+        if (resultCache == null) {
+            return rankedQuery(lastRankedQuery, lastRankingType, lastNormType, lastRankedCount, skip);
+        }
+        // the pages so far are cached with the new one, so the next page starts from the cache
+        String key = ResultCache.key(lastRankedQuery, QueryType.RANKED_QUERY, lastRankingType, lastNormType);
+        long generation = index.generation();
+        ResultCache.Result cached = resultCache.get(key, generation, lastRankedCount);
+        if (cached == null || !cached.covers(lastRankedCount)) {
+            cached = resultCache.put(key, rankedQuery(lastRankedQuery, lastRankingType, lastNormType, lastRankedCount, 0), generation);
+        }
+        return cached.slice(skip, lastRankedCount);
+    }
+
+    /**
+     *  Returns true if a term of the query has a wildcard.
+     */
+    private boolean hasWildcard( Query query ) {
+        return query.queryterm.stream().anyMatch(qt -> isPattern(qt.term));
+    }
+
+    /**
+     *  Returns true if a query term is a pattern to be expanded. A term of
+     *  the vocabulary is searched as it is even if it looks like a pattern,
+     *  as URLs with a query string do.
+     */
+    private boolean isPattern( String term ) {
+        return TermDictionary.isPattern(term) && index.docFrequency(term) == 0;
+    }
+
+    /**
+     *  Returns the postings of a term of a ranked query. A wildcard term is
+     *  scored as one virtual term, so a wide expansion doesn't make a long
+     *  query or add up the weight of the term many times: its postings are
+     *  the union of the postings of the expansions with the tf summed per
+     *  document, and its df is the number of documents with any expansion.
+     *  Only the <code>wildcardExpansionLimit</code> expansions with the
+     *  highest df are used.
+     */
+    private PostingsList rankedPostings( String term ) {
+        if (!isPattern(term)) {
+            return index.getPostings(term);
+        }
+        List<String> terms = expandWildcardTerm(term);
+        if (terms.size() > wildcardExpansionLimit) {
+            HashMap<String, Integer> df = new HashMap<>();
+            for (String t : terms) {
+                df.put(t, index.docFrequency(t));
+            }
+            terms.sort((a, b) -> df.get(a).equals(df.get(b)) ? a.compareTo(b) : Integer.compare(df.get(b), df.get(a)));
+            terms = terms.subList(0, wildcardExpansionLimit);
+        }
+        PostingsUnion union = union(terms);
+        if (union.size() == 0) {
+            return null;
+        }
+        PostingsList postings = new PostingsList();
+        while (union.next()) {
+            PostingsEntry entry = new PostingsEntry(union.docID());
+            entry.setScore(union.score());
+            postings.add(entry);
+        }
+        return postings;
+    }
+
+    /**
+     *  Returns the terms of the vocabulary that match a wildcard, regex or fuzzy term.
+     */
+    private List<String> expandWildcardTerm( String wildcardTerm ) {
+        List<String> terms = termDictionary().expand(wildcardTerm);
+        if (newTermDictionary != null) {
+            terms = new ArrayList<>(terms);
+            terms.addAll(newTermDictionary.expand(wildcardTerm));
+            terms.sort(null);
+        }
+        return terms;
+    }
+
+    /**
+     *  Returns the dictionary of the terms in the k-gram index. Terms added
+     *  later go to a small dictionary of new terms, which is built again
+     *  when terms are added, and the two are only built again as one when
+     *  the new terms have become many. Without a k-gram index the terms are
+     *  read from the index when documents have been added, and the
+     *  dictionary is built again if terms have gone.
+     */
+    private TermDictionary termDictionary() {
+        if (kgIndex == null) {
+            if (termDictionary == null) {
+                termDictionary = new TermDictionary(index.terms());
+            } else if (dictionaryDocCount != index.docNames.size() || dictionaryGeneration != index.generation()) {
+                ArrayList<String> added = new ArrayList<>();
+                int kept = 0;
+                for (String term : index.terms()) {
+                    if (Arrays.binarySearch(termDictionary.terms, term) >= 0) {
+                        kept++;
+                    } else {
+                        added.add(term);
+                    }
                 }
-            } else {
-                expandedQuery.queryterm.add(qt);
+                if (kept < termDictionary.size()) {
+                    added.addAll(Arrays.asList(termDictionary.terms));
+                    termDictionary = new TermDictionary(added);
+                    newTermDictionary = null;
+                } else {
+                    addNewTerms(added);
+                }
+            }
+            dictionaryDocCount = index.docNames.size();
+            dictionaryGeneration = index.generation();
+            return termDictionary;
+        }
+        int size = kgIndex.id2term.size();
+        if (termDictionary == null || size < termDictionary.size()) {
+            termDictionary = new TermDictionary(kgIndex.id2term.values());
+            newTermDictionary = null;
+        } else if (size != termDictionary.size() + (newTermDictionary == null ? 0 : newTermDictionary.size())) {
+            // the term IDs are given in order, so the new terms have the highest
+            ArrayList<String> added = new ArrayList<>();
+            for (int id = termDictionary.size(); id < size; id++) {
+                String term = kgIndex.id2term.get(id);
+                if (term == null) {
+                    termDictionary = new TermDictionary(kgIndex.id2term.values());
+                    newTermDictionary = null;
+                    return termDictionary;
+                }
+                added.add(term);
             }
+            addNewTerms(added);
         }
-        return expandedQuery;
+        return termDictionary;
     }
-    
-    private List<String> expandWildcardTerm(String wildcardTerm, KGramIndex kgIndex) {
-        Set<String> terms = new HashSet<>();
-        int wildcardPos = wildcardTerm.indexOf('*');
-    
-        String prefix = wildcardTerm.substring(0, wildcardPos);
-        String suffix = wildcardTerm.substring(wildcardPos + 1);
-        
-        // prefix wildcard (*less)
-        if (prefix.isEmpty()) {
-            String suffixKGram = suffix.length() >= 2 ? 
-                suffix.substring(0, 2) : 
-                suffix + "$";
-            List<KGramPostingsEntry> postings = kgIndex.getPostings(suffixKGram);
-            for (KGramPostingsEntry entry : postings) {
-                String term = kgIndex.getTermByID(entry.tokenID);
-                if (term.endsWith(suffix)) terms.add(term);
-            }
-        }
-        // suffix wildcard (red*)
-        else if (suffix.isEmpty()) {
-            String prefixKGram = prefix.length() >= 2 ? 
-                prefix.substring(prefix.length() - 2) : 
-                "^" + prefix;
-            List<KGramPostingsEntry> postings = kgIndex.getPostings(prefixKGram);
-            for (KGramPostingsEntry entry : postings) {
-                String term = kgIndex.getTermByID(entry.tokenID);
-                if (term.startsWith(prefix)) terms.add(term);
-            }
-        }
-        // middle wildcard (zom*ie)
-        else {
-            // k-grams around the *
-            String prefixKGram = prefix.length() >= 2 ? 
-                prefix.substring(prefix.length() - 2) : 
-                "^" + prefix;
-            String suffixKGram = suffix.length() >= 2 ? 
-                suffix.substring(0, 2) : 
-                suffix + "$";
-            
-            List<KGramPostingsEntry> prefixPostings = kgIndex.getPostings(prefixKGram);
-            List<KGramPostingsEntry> suffixPostings = kgIndex.getPostings(suffixKGram);
-            List<KGramPostingsEntry> combined = kgIndex.intersect(prefixPostings, suffixPostings);
-            
-            // filtering by full pattern
-            String pattern = "^" + prefix + ".*" + suffix + "$";
-            for (KGramPostingsEntry entry : combined) {
-                String term = kgIndex.getTermByID(entry.tokenID);
-                if (term.matches(pattern)) terms.add(term);
-            }
-        }
-        
-        return new ArrayList<>(terms);
-    }
-
-    private PostingsList mergePostingLists(PostingsList postingList1, PostingsList postingList2) {
-        PostingsList mergedPostingList = new PostingsList();
-        int i = 0, j = 0;
-        
-        while (i < postingList1.size() && j < postingList2.size()) {
-            PostingsEntry e1 = postingList1.get(i);
-            PostingsEntry e2 = postingList2.get(j);
-            
-            if (e1.docID == e2.docID) {
-                mergedPostingList.add(mergeEntries(e1, e2));
-                i++;
-                j++;
-            } else if (e1.docID < e2.docID) {
-                mergedPostingList.add(e1);
-                i++;
-            } else {
-                mergedPostingList.add(e2);
-                j++;
+
+    /**
+     *  Makes the dictionary of new terms from all terms added since the
+     *  dictionary was built, or builds the dictionary again with them if
+     *  they are too many.
+     */
+    private void addNewTerms( List<String> added ) {
+        if (added.size() > termDictionary.size() / NEW_TERMS_FRACTION) {
+            added.addAll(Arrays.asList(termDictionary.terms));
+            termDictionary = new TermDictionary(added);
+            newTermDictionary = null;
+        } else {
+            newTermDictionary = added.isEmpty() ? null : new TermDictionary(added);
+        }
+    }
+
+    /**
+     *  Returns the cached DocIdSet of a frequent term, or null if the term
+     *  hasn't been seen as frequent yet.
+     */
+    private DocIdSet cachedDocIdSet( String term ) {
+        if (docIdSetsDocCount != index.docNames.size() || docIdSetsGeneration != index.generation()) {
+            // documents have been added or renumbered since the sets were built
+            docIdSets.clear();
+            docIdSetsDocCount = index.docNames.size();
+            docIdSetsGeneration = index.generation();
+        }
+        return docIdSets.get(term);
+    }
+
+    /**
+     *  Returns the DocIdSet of a term, which is cached if the term is frequent.
+     */
+    private DocIdSet docIdSet( String term ) {
+        DocIdSet set = cachedDocIdSet(term);
+        if (set == null) {
+            PostingsList postings = index.getPostings(term);
+            set = DocIdSet.of(postings);
+            if (postings != null && postings.size() >= DOCIDSET_MIN_POSTINGS) {
+                docIdSets.put(term, set);
             }
         }
-        
-        while (i < postingList1.size()) mergedPostingList.add(postingList1.get(i++));
-        while (j < postingList2.size()) mergedPostingList.add(postingList2.get(j++));
-        
-        return mergedPostingList;
+        return set;
     }
 
-    private PostingsEntry mergeEntries(PostingsEntry e1, PostingsEntry e2) {
-        PostingsEntry mergedEntry = new PostingsEntry(e1.docID);
-        mergedEntry.setScore(e1.score + e2.score);
-        mergedEntry.addOffsets(new ArrayList<>(e1.getOffsets()));
-        mergedEntry.addOffsets(new ArrayList<>(e2.getOffsets()));
-        return mergedEntry;
+    /**
+     *  Returns the documents in the set that have not been deleted, as postings.
+     */
+    private PostingsList toPostingsList( DocIdSet set ) {
+        PostingsList results = new PostingsList();
+        for (int docID : set.toArray()) {
+            if (!index.isDeleted(docID)) {
+                results.add(new PostingsEntry(docID));
+            }
+        }
+        return results;
     }
 
     private PostingsList intersectQueryWildcard(Query query) {
-        List<PostingsList>  allPostings = new ArrayList<>();
-
+        // only the docIDs matter here, so the expansions are unioned and
+        // intersected as DocIdSets, the terms with the fewest documents first
+        ArrayList<List<String>> alternatives = new ArrayList<>();
+        HashMap<List<String>, Integer> df = new HashMap<>();
         for (Query.QueryTerm qt : query.queryterm) {
-            PostingsList newPostings = new PostingsList();
-            if (qt.term.contains("*")) {
-                List<String> expandedTerms = expandWildcardTerm(qt.term, kgIndex);
-                for (String term : expandedTerms) {
-                    newPostings = mergePostingLists(newPostings, index.getPostings(term));
-                }
-            } else {
-                newPostings = mergePostingLists(newPostings, index.getPostings(qt.term));
+            List<String> terms = isPattern(qt.term) ? expandWildcardTerm(qt.term) : List.of(qt.term);
+            int n = 0;
+            for (String term : terms) {
+                n += index.docFrequency(term);
             }
-            allPostings.add(newPostings);
+            alternatives.add(terms);
+            df.put(terms, n);
         }
+        alternatives.sort((a, b) -> Integer.compare(df.get(a), df.get(b)));
 
-        PostingsList result = allPostings.get(0);
-        for (int i = 1; i < allPostings.size(); i++) {
-            result = intersect(result, allPostings.get(i));
+        DocIdSet result = null;
+        for (List<String> terms : alternatives) {
+            DocIdSet union = new DocIdSet();
+            for (String term : terms) {
+                union = union.or(docIdSet(term));
+            }
+            result = result == null ? union : result.and(union);
+            if (result.cardinality() == 0) break;
         }
-        return result;
+        return toPostingsList(result);
     }
 
     private PostingsList intersectQuery( Query query ) {
-        PostingsList searchQueries = index.getPostings(query.queryterm.get(0).term);
-
-        for (int i = 1; i < query.queryterm.size(); i++) {
-            String term = query.queryterm.get(i).term;
-            PostingsList nextPostingsList = index.getPostings(term);
+        if (query.queryterm.size() == 1) {
+            return skipDeleted(index.getPostings(query.queryterm.get(0).term));
+        }
 
-            if (nextPostingsList != null) {
-                searchQueries = intersect(searchQueries, nextPostingsList);
-            } else {
+        // the rarest term goes first, so the candidates are few from the
+        // start and the lists of the frequent terms may not be read at all
+        ArrayList<String> terms = new ArrayList<>();
+        HashMap<String, Integer> df = new HashMap<>();
+        for (Query.QueryTerm qt : query.queryterm) {
+            if (df.containsKey(qt.term)) continue;
+            int n = index.docFrequency(qt.term);
+            if (n == 0) {
                 return null;
             }
-            
+            df.put(qt.term, n);
+            terms.add(qt.term);
+        }
+        terms.sort((a, b) -> Integer.compare(df.get(a), df.get(b)));
+
+        PostingsList searchQueries = intersectionCache == null ? null : cachedPair(terms, df);
+        if (searchQueries == null && df.get(terms.get(0)) >= DOCIDSET_MIN_POSTINGS) {
+            // only frequent terms, intersected as DocIdSets
+            DocIdSet result = docIdSet(terms.get(0));
+            for (int i = 1; i < terms.size() && result.cardinality() > 0; i++) {
+                result = result.and(docIdSet(terms.get(i)));
+            }
+            return toPostingsList(result);
         }
 
-        return searchQueries;
+        // a cached pair has taken its terms off the list, otherwise the rarest term is the start
+        int first = searchQueries == null ? 1 : 0;
+        if (searchQueries == null) {
+            searchQueries = index.getPostings(terms.get(0));
+        }
+        for (int i = first; i < terms.size() && searchQueries.size() > 0; i++) {
+            DocIdSet set = cachedDocIdSet(terms.get(i));
+            if (set != null) {
+                PostingsList results = new PostingsList();
+                for (int j = 0; j < searchQueries.size(); j++) {
+                    if (set.contains(searchQueries.get(j).docID)) {
+                        results.add(searchQueries.get(j));
+                    }
+                }
+                searchQueries = results;
+                continue;
+            }
+            PostingsList nextPostingsList = index.getPostings(terms.get(i));
+            if (nextPostingsList.size() >= DOCIDSET_MIN_POSTINGS) {
+                docIdSets.put(terms.get(i), DocIdSet.of(nextPostingsList));
+            }
+            searchQueries = intersect(searchQueries, nextPostingsList);
+        }
+        return skipDeleted(searchQueries);
+    }
+
+    /**
+     *  Counts the pairs of the terms of an intersection query, caches the
+     *  pairs that have been admitted, and returns the documents of the
+     *  cached pair with the fewest documents. The terms of that pair are
+     *  taken off the list. Pairs of two frequent terms are left out, as
+     *  their DocIdSets are already in memory. Returns null if no pair is
+     *  cached, or if the best one has more documents than the rarest term,
+     *  which is then a better start.
+     */
+    private PostingsList cachedPair( List<String> terms, Map<String, Integer> df ) {
+        long generation = index.generation();
+        int[] best = null;
+        String first = null, second = null;
+        for (int i = 0; i < terms.size(); i++) {
+            // the terms are sorted by df, so the rest are frequent too
+            if (df.get(terms.get(i)) >= DOCIDSET_MIN_POSTINGS) break;
+            for (int j = i + 1; j < terms.size(); j++) {
+                String a = terms.get(i), b = terms.get(j);
+                if (intersectionCache.observe(a, b, generation)) {
+                    intersectionCache.put(a, b, intersect(index.getPostings(a), index.getPostings(b)), generation);
+                }
+                int[] docIDs = intersectionCache.get(a, b, generation);
+                if (docIDs != null && (best == null || docIDs.length < best.length)) {
+                    best = docIDs;
+                    first = a;
+                    second = b;
+                }
+            }
+        }
+        if (best == null || best.length > df.get(terms.get(0))) {
+            intersectionCache.record(false);
+            return null;
+        }
+        intersectionCache.record(true);
+        terms.remove(first);
+        terms.remove(second);
+        PostingsList results = new PostingsList();
+        for (int docID : best) {
+            results.add(new PostingsEntry(docID));
+        }
+        return results;
+    }
+
+    /**
+     *  Returns the postings without the entries of deleted documents. Only
+     *  needed for single-term queries, the other paths skip deleted documents
+     *  while they merge the postings lists.
+     */
+    private PostingsList skipDeleted( PostingsList postings ) {
+        if (postings == null) {
+            return null;
+        }
+        PostingsList results = new PostingsList();
+        for (int i = 0; i < postings.size(); i++) {
+            if (!index.isDeleted(postings.get(i).docID)) {
+                results.add(postings.get(i));
+            }
+        }
+        return results;
     }
 
+    /**
+     *  Intersects two postings lists. Lists of similar length are merged,
+     *  but when one list is much longer it is searched by galloping for
+     *  the entries of the shorter one.
+     */
     private PostingsList intersect( PostingsList p1, PostingsList p2 ) {
         PostingsList results = new PostingsList();
         int i = 0;
         int j = 0;
 
-        if (p1 == null || p1 == null) {
+        if (p1 == null || p2 == null) {
             return results;
         }
+        if ((long) p1.size() * GALLOP_RATIO < p2.size()) {
+            return gallopIntersect(p1, p2);
+        }
+        if ((long) p2.size() * GALLOP_RATIO < p1.size()) {
+            return gallopIntersect(p2, p1);
+        }
 
         while (i < p1.size() && j < p2.size()) {
             PostingsEntry e1 = p1.get(i);
             PostingsEntry e2 = p2.get(j);
 
             if (e1.docID == e2.docID) {
-                results.add(e1);
+                if (!index.isDeleted(e1.docID)) {
+                    results.add(e1);
+                }
                 i++;
                 j++;
             }
@@ -314,163 +625,778 @@ public class Searcher {
         return results;
     }
 
-    private PostingsList phraseQueryWildcard(Query query) {
-        List<PostingsList>  allPostings = new ArrayList<>();
-
-        for (Query.QueryTerm qt : query.queryterm) {
-            PostingsList newPostings = new PostingsList();
-            if (qt.term.contains("*")) {
-                List<String> expandedTerms = expandWildcardTerm(qt.term, kgIndex);
-                for (String term : expandedTerms) {
-                    newPostings = mergePostingLists(newPostings, index.getPostings(term));
+    /**
+     *  Intersects a short postings list with a much longer one. For each
+     *  entry of the short list, the long list is searched by galloping from
+     *  the last position, so the cost depends on the short list rather than
+     *  the long one.
+     */
+    private PostingsList gallopIntersect( PostingsList shorter, PostingsList longer ) {
+        PostingsList results = new PostingsList();
+        int lo = 0;
+        for (int i = 0; i < shorter.size() && lo < longer.size(); i++) {
+            PostingsEntry entry = shorter.get(i);
+            lo = gallop(longer, lo, entry.docID);
+            if (lo < longer.size() && longer.get(lo).docID == entry.docID) {
+                if (!index.isDeleted(entry.docID)) {
+                    results.add(entry);
                 }
+                lo++;
+            }
+        }
+        return results;
+    }
+
+    /**
+     *  Returns the position of the first entry at or after <code>lo</code>
+     *  with a docID of at least <code>target</code>, or the size of the
+     *  list if there is none. Steps of growing size are taken from
+     *  <code>lo</code>, then the last step is binary searched.
+     */
+    static int gallop( PostingsList list, int lo, int target ) {
+        int hi = lo;
+        int step = 1;
+        while (hi < list.size() && list.get(hi).docID < target) {
+            lo = hi + 1;
+            hi += step;
+            step *= 2;
+        }
+        hi = Math.min(hi, list.size());
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (list.get(mid).docID < target) {
+                lo = mid + 1;
             } else {
-                newPostings = mergePostingLists(newPostings, index.getPostings(qt.term));
+                hi = mid;
             }
-            allPostings.add(newPostings);
         }
+        return lo;
+    }
 
-        PostingsList result = allPostings.get(0);
-        for (int i = 1; i < allPostings.size(); i++) {
-            result = phraseIntersect(result, allPostings.get(i));
+    private PostingsList phraseQueryWildcard(Query query) {
+        // the expansions of a wildcard are unioned lazily, and their
+        // lists are only read when phrase matching gets to the term
+        List<List<String>> alternatives = new ArrayList<>();
+        int[] df = new int[query.queryterm.size()];
+        for (int i = 0; i < df.length; i++) {
+            String term = query.queryterm.get(i).term;
+            List<String> terms = isPattern(term) ? expandWildcardTerm(term) : List.of(term);
+            for (String t : terms) {
+                df[i] += index.docFrequency(t);
+            }
+            alternatives.add(terms);
         }
-        return result;
-        
+
+        if (df.length == 1) {
+            PostingsUnion union = union(alternatives.get(0));
+            PostingsList result = new PostingsList();
+            while (union.next()) {
+                if (!index.isDeleted(union.docID())) result.add(union.entry());
+            }
+            return result;
+        }
+        return phraseMatch(df, i -> union(alternatives.get(i)));
     }
 
-    private PostingsList phraseQuery(Query query) {
-        PostingsList searchQueries = index.getPostings(query.queryterm.get(0).term);
+    /**
+     *  Returns a cursor over the union of the postings of the terms.
+     */
+    private PostingsUnion union( List<String> terms ) {
+        List<PostingsList> lists = new ArrayList<>();
+        for (String term : terms) {
+            lists.add(index.getPostings(term));
+        }
+        return new PostingsUnion(lists);
+    }
 
-        for (int i = 1; i < query.queryterm.size(); i++) {
-            String term = query.queryterm.get(i).term;
-            PostingsList nextPostingsList = index.getPostings(term);
+    private PostingsList phraseQuery(Query query) {
+        if (query.queryterm.size() == 1) {
+            return skipDeleted(index.getPostings(query.queryterm.get(0).term));
+        }
+        if (useBiwordIndex(query)) {
+            return biwordQuery(query);
+        }
 
-            if (nextPostingsList != null) {
-                searchQueries = phraseIntersect(searchQueries, nextPostingsList);
-            } else {
+        int[] df = new int[query.queryterm.size()];
+        for (int i = 0; i < df.length; i++) {
+            df[i] = index.docFrequency(query.queryterm.get(i).term);
+            if (df[i] == 0) {
                 return null;
             }
         }
-
-        return searchQueries;
+        // a term that occurs twice in the phrase is only read once
+        HashMap<String, PostingsList> postings = new HashMap<>();
+        return phraseMatch(df, i -> new PostingsUnion(List.of(postings.computeIfAbsent(query.queryterm.get(i).term, index::getPostings))));
     }
 
-    private PostingsList phraseIntersect( PostingsList p1, PostingsList p2 ) {
-        PostingsList results = new PostingsList();
-        int i = 0;
-        int j = 0;
+    /**
+     *  Returns true if every pair of consecutive terms of a phrase is in
+     *  the biword index. It is not used once documents have been added
+     *  after it was built.
+     */
+    private boolean useBiwordIndex( Query query ) {
+        if (biwordIndex == null || biwordIndex.docCount != index.docNames.size()) {
+            return false;
+        }
+        for (int i = 0; i + 1 < query.queryterm.size(); i++) {
+            if (!biwordIndex.covers(query.queryterm.get(i).term, query.queryterm.get(i + 1).term)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        if (p1 == null || p1 == null) {
-            return results;
+    /**
+     *  Answers a phrase query from the biword index. The pair at position
+     *  i ends at start + i + 1, so the pairs are matched like the terms of
+     *  a phrase that starts one word later, and the phrase ends where the
+     *  last pair ends.
+     */
+    private PostingsList biwordQuery( Query query ) {
+        String[] pairs = new String[query.queryterm.size() - 1];
+        int[] df = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            String first = query.queryterm.get(i).term;
+            String second = query.queryterm.get(i + 1).term;
+            pairs[i] = first + " " + second;
+            df[i] = biwordIndex.docFrequency(first, second);
+            if (df[i] == 0) {
+                // the words are indexed but never adjacent
+                return new PostingsList();
+            }
         }
+        HashMap<String, PostingsList> postings = new HashMap<>();
+        return phraseMatch(df, i -> new PostingsUnion(List.of(postings.computeIfAbsent(pairs[i], pair -> {
+            String[] words = pair.split(" ");
+            return biwordIndex.getPostings(words[0], words[1]);
+        }))));
+    }
 
-        while (i < p1.size() && j < p2.size()) {
-            PostingsEntry e1 = p1.get(i);
-            PostingsEntry e2 = p2.get(j);
+    /**
+     *  Returns the documents where the terms occur as a phrase, with the
+     *  positions where the phrase ends as offsets.
+     *
+     *  The candidates are the positions where the phrase could start. They
+     *  are taken from the rarest term, and then checked against one term at
+     *  a time in order of increasing df: a candidate start s survives if
+     *  the term at relative position i occurs at s + i, which is found by
+     *  a two-pointer merge of the sorted positions. Postings lists are
+     *  only read while there are candidates left.
+     *
+     *  @param df  The document frequency of the term at each position.
+     *  @param postings  Returns a cursor over the postings of the term at a position.
+     */
+    private PostingsList phraseMatch( int[] df, IntFunction<PostingsUnion> postings ) {
+        Integer[] order = new Integer[df.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(df[a], df[b]));
 
-            if (e1.docID == e2.docID) {
-                PostingsEntry entry = new PostingsEntry(e1.docID);
+        PostingsList candidates = new PostingsList();
+        PostingsUnion rarest = postings.apply(order[0]);
+        while (rarest.next()) {
+            if (index.isDeleted(rarest.docID())) continue;
+            PostingsEntry entry = rarest.entry();
+            PostingsEntry candidate = new PostingsEntry(entry.docID);
+            for (int offset : entry.getOffsets()) {
+                candidate.addOffset(offset - order[0]);
+            }
+            candidates.add(candidate);
+        }
 
-                for (int k : e1.getOffsets()) {
-                    for (int l : e2.getOffsets()) {
-                        if (k + 1 == l) {
-                            entry.addOffset(l);
-                        }
+        for (int k = 1; k < order.length && candidates.size() > 0; k++) {
+            int shift = order[k];
+            PostingsUnion list = postings.apply(shift);
+            PostingsList survivors = new PostingsList();
+            for (int i = 0; i < candidates.size(); i++) {
+                PostingsEntry candidate = candidates.get(i);
+                if (!list.advance(candidate.docID)) break;
+                if (list.docID() != candidate.docID) continue;
+                ArrayList<Integer> starts = candidate.getOffsets();
+                ArrayList<Integer> offsets = list.entry().getOffsets();
+                PostingsEntry survivor = new PostingsEntry(candidate.docID);
+                int x = 0;
+                int y = 0;
+                while (x < starts.size() && y < offsets.size()) {
+                    int start = starts.get(x);
+                    int shifted = offsets.get(y) - shift;
+                    if (start == shifted) {
+                        survivor.addOffset(start);
+                        x++;
+                        y++;
+                    } else if (start < shifted) {
+                        x++;
+                    } else {
+                        y++;
                     }
                 }
-                
-                if (entry.getOffsets().size() > 0) {
-                    results.add(entry);
+                if (survivor.getOffsets().size() > 0) {
+                    survivors.add(survivor);
                 }
+            }
+            candidates = survivors;
+        }
 
-                i++;
-                j++;
+        PostingsList results = new PostingsList();
+        for (int i = 0; i < candidates.size(); i++) {
+            PostingsEntry entry = new PostingsEntry(candidates.get(i).docID);
+            for (int start : candidates.get(i).getOffsets()) {
+                entry.addOffset(start + df.length - 1);
             }
-            else if (e1.docID > e2.docID) {
-                j++; // advance second pointer
+            results.add(entry);
+        }
+        return results;
+    }
+
+    /**
+     *  Returns the documents where all terms occur within a window of k
+     *  words, i.e. the last term is at most k positions after the first.
+     *  The window is set by a near/k term in the query, or by onear/k if
+     *  the terms also have to occur in query order. Wildcard terms match
+     *  any of their expansions. The offsets of the results are the
+     *  positions where a matching window ends.
+     */
+    private PostingsList proximityQuery( Query query ) {
+        int window = DEFAULT_PROXIMITY;
+        boolean ordered = false;
+        List<String> terms = new ArrayList<>();
+        List<PostingsUnion> lists = new ArrayList<>();
+        for (Query.QueryTerm qt : query.queryterm) {
+            Matcher operator = PROXIMITY_OPERATOR.matcher(qt.term);
+            if (operator.matches()) {
+                ordered = !operator.group(1).isEmpty();
+                window = Integer.parseInt(operator.group(2));
+                continue;
             }
-            else {
-                i++; // advance first pointer
+            PostingsUnion postings = union(isPattern(qt.term) ? expandWildcardTerm(qt.term) : List.of(qt.term));
+            if (postings.size() == 0) {
+                return null;
             }
+            terms.add(qt.term);
+            lists.add(postings);
+        }
+        if (lists.isEmpty()) {
+            return null;
         }
 
+        // the documents with all terms, found from the shortest list
+        int shortest = 0;
+        for (int i = 1; i < lists.size(); i++) {
+            if (lists.get(i).size() < lists.get(shortest).size()) shortest = i;
+        }
+        PostingsList results = new PostingsList();
+        int[][] positions = new int[lists.size()][];
+        while (lists.get(shortest).next()) {
+            int docID = lists.get(shortest).docID();
+            if (index.isDeleted(docID)) continue;
+            boolean inAll = true;
+            for (int t = 0; t < lists.size() && inAll; t++) {
+                inAll = lists.get(t).advance(docID) && lists.get(t).docID() == docID;
+                if (inAll) {
+                    positions[t] = lists.get(t).entry().getOffsets().stream().mapToInt(Integer::intValue).toArray();
+                }
+            }
+            if (!inAll) continue;
+            List<Integer> ends = ordered ? orderedWindows(positions, window) : unorderedWindows(positions, terms, window);
+            if (!ends.isEmpty()) {
+                PostingsEntry entry = new PostingsEntry(docID);
+                entry.addOffsets(new ArrayList<>(ends));
+                results.add(entry);
+            }
+        }
         return results;
     }
 
-    private PostingsList rankedQuery( Query query, RankingType rankingType, NormalizationType normType) {
+    /**
+     *  Returns the positions where a window of at most k words that
+     *  contains all terms in any order ends. The position streams of the
+     *  terms are merged with a heap, and a window slides over them: the
+     *  right end takes one position at a time and the left end moves up as
+     *  long as every term is still in the window, so the window is the
+     *  shortest one ending at the right end. Each position enters and
+     *  leaves the window once, so apart from the merge, which costs log t
+     *  per position for t terms, the time is linear. A term that occurs n
+     *  times in the query needs n positions in the window.
+     */
+    private static List<Integer> unorderedWindows( int[][] positions, List<String> terms, int k ) {
+        // the query positions of the same term share one counter
+        HashMap<String, Integer> termNumbers = new HashMap<>();
+        int[] termOf = new int[terms.size()];
+        for (int t = 0; t < terms.size(); t++) {
+            termOf[t] = termNumbers.computeIfAbsent(terms.get(t), x -> termNumbers.size());
+        }
+        int[] needed = new int[termNumbers.size()];
+        for (int t = 0; t < terms.size(); t++) {
+            needed[termOf[t]]++;
+        }
+
+        // merge the streams, one stream per distinct term
+        int total = 0;
+        int[][] streams = new int[needed.length][];
+        for (int t = 0; t < terms.size(); t++) {
+            if (streams[termOf[t]] == null) {
+                streams[termOf[t]] = positions[t];
+                total += positions[t].length;
+            }
+        }
+        int[] mergedPositions = new int[total];
+        int[] mergedTerms = new int[total];
+        int[] next = new int[streams.length];
+        PriorityQueue<Integer> heap = new PriorityQueue<Integer>(streams.length, (a, b) -> Integer.compare(streams[a][next[a]], streams[b][next[b]]));
+        for (int s = 0; s < streams.length; s++) {
+            if (streams[s].length > 0) heap.add(s);
+        }
+        for (int n = 0; n < total; n++) {
+            int best = heap.poll();
+            mergedPositions[n] = streams[best][next[best]++];
+            mergedTerms[n] = best;
+            if (next[best] < streams[best].length) heap.add(best);
+        }
+
+        List<Integer> ends = new ArrayList<>();
+        int[] count = new int[needed.length];
+        int missing = needed.length;
+        int left = 0;
+        for (int right = 0; right < total; right++) {
+            if (++count[mergedTerms[right]] == needed[mergedTerms[right]]) missing--;
+            if (missing > 0) continue;
+            // shrink to the smallest window ending here that has all terms
+            while (count[mergedTerms[left]] > needed[mergedTerms[left]]) {
+                count[mergedTerms[left++]]--;
+            }
+            if (mergedPositions[right] - mergedPositions[left] <= k) {
+                ends.add(mergedPositions[right]);
+            }
+        }
+        return ends;
+    }
+
+    /**
+     *  Returns the end positions of the windows of at most k words that
+     *  contain the terms in query order. For each position of the first
+     *  term, the earliest following position of each next term is taken.
+     *  The starts only increase, so the pointers into the position lists
+     *  never move back.
+     */
+    private static List<Integer> orderedWindows( int[][] positions, int k ) {
+        List<Integer> ends = new ArrayList<>();
+        int[] next = new int[positions.length];
+        for (int start : positions[0]) {
+            int last = start;
+            boolean complete = true;
+            for (int t = 1; t < positions.length; t++) {
+                while (next[t] < positions[t].length && positions[t][next[t]] <= last) {
+                    next[t]++;
+                }
+                if (next[t] == positions[t].length) {
+                    complete = false;
+                    break;
+                }
+                last = positions[t][next[t]];
+                if (last - start > k) break;
+            }
+            if (!complete) break;
+            if (last - start <= k && (ends.isEmpty() || ends.get(ends.size() - 1) != last)) {
+                ends.add(last);
+            }
+        }
+        return ends;
+    }
+
+    /**
+     *  Returns the document lengths for a normalization type as an array
+     *  indexed by docID, so that scoring doesn't look up boxed values.
+     */
+    private double[] documentLengths( NormalizationType normType ) {
+        if (lengthsDocCount != index.docNames.size() || lengthsGeneration != index.generation()) {
+            int maxDocID = 0;
+            for (int docID : index.docNames.keySet()) {
+                maxDocID = Math.max(maxDocID, docID);
+            }
+            wordLengths = new double[maxDocID + 1];
+            euclideanLengths = new double[maxDocID + 1];
+            for (Map.Entry<Integer, Integer> entry : index.docLengths.entrySet()) {
+                if (entry.getKey() <= maxDocID) wordLengths[entry.getKey()] = entry.getValue();
+            }
+            for (Map.Entry<Integer, Double> entry : index.euclideanLengths.entrySet()) {
+                if (entry.getKey() <= maxDocID) euclideanLengths[entry.getKey()] = entry.getValue();
+            }
+            lengthsDocCount = index.docNames.size();
+            lengthsGeneration = index.generation();
+        }
+        return normType == NormalizationType.EUCLIDEAN ? euclideanLengths : wordLengths;
+    }
+
+    /**
+     *  Returns the documents ranked skip+1 to k for a ranked query. The k best
+     *  are kept in a bounded heap instead of sorting all matching documents.
+     */
+    private PostingsList rankedQuery( Query query, RankingType rankingType, NormalizationType normType, int k, int skip ) {
         if (rankingType != RankingType.HITS) {
-            if (pagerankMap.isEmpty()) {
-                loadPageRankScores("C:\\Users\\andre\\Desktop\\DD2477\\assignment2\\pagerank\\pagerank_scores_davis.txt");
+            if (rankingType != RankingType.TF_IDF && pageranks == null) {
+                System.err.println("No PageRank scores are loaded, every document gets PageRank 0");
+            }
+            double[] lengths = documentLengths(normType);
+            if (useStaticRankOrder(rankingType)) {
+                return staticRankQuery(query, lengths, normType, rankingType, k, skip);
             }
-            PostingsList results = new PostingsList();
-            int N = index.docNames.size();
-            HashMap<Integer, Double> scores = new HashMap<>();
+            if (useChampionLists(query, rankingType)) {
+                return championQuery(query, lengths, normType, rankingType, k, skip);
+            }
+            return fullRankedQuery(query, lengths, normType, rankingType, k, skip);
+        } else {
+            return hitsRanking(query, normType);
+        }
+    }
 
+    /**
+     *  Returns the documents ranked skip+1 to k from the full postings.
+     */
+    private PostingsList fullRankedQuery( Query query, double[] lengths, NormalizationType normType, RankingType rankingType, int k, int skip ) {
+        if (rankingType == RankingType.TF_IDF && useImpactIndex(query)) {
+            return impactQuery(query, normType, k, skip);
+        }
+        if (rankingType == RankingType.TF_IDF && pruningType != PruningType.NONE) {
+            return wandQuery(query, lengths, normType, k, skip);
+        }
+        ScoreAccumulator scores = accumulators.get();
+        scores.ensureCapacity(lengths.length - 1);
+        accumulateScores(query, lengths, scores, false);
+        return topK(scores, rankingType, k, skip);
+    }
+
+    /**
+     *  Returns the documents ranked skip+1 to k with the champion lists as
+     *  the first tier: the documents of the tier come first, by score, and
+     *  the other matching documents after them, by the full ranking. So
+     *  the ranking doesn't depend on k, and the pages of a query fit
+     *  together. The number of hits counts all matching documents.
+     */
+    private PostingsList championQuery( Query query, double[] lengths, NormalizationType normType, RankingType rankingType, int k, int skip ) {
+        ScoreAccumulator scores = accumulators.get();
+        scores.ensureCapacity(lengths.length - 1);
+        accumulateScores(query, lengths, scores, true);
+        int tierSize = scores.size();
+        if (tierSize == 0) {
+            return fullRankedQuery(query, lengths, normType, rankingType, k, skip);
+        }
+        PostingsList tier = topK(scores, rankingType, tierSize, 0);
+        PostingsList results = new PostingsList();
+        if (tier.size() >= k) {
+            for (int i = skip; i < k; i++) {
+                results.add(tier.get(i));
+            }
+            DocIdSet matching = new DocIdSet();
             for (int i = 0; i < query.queryterm.size(); i++) {
-                String term = query.queryterm.get(i).term;
-                PostingsList nextPostingsList = index.getPostings(term);
-
-                if (nextPostingsList != null) {
-                    int df = nextPostingsList.size();
-                    double idf = Math.log((double) N / df);
-                    for (int j = 0; j < nextPostingsList.size(); j++) {
-                        PostingsEntry entry = nextPostingsList.get(j);
-                        int docID = entry.docID;
-                        double tf = entry.score;
-                        double lenD;
-                        if (normType == NormalizationType.EUCLIDEAN) {
-                            lenD = index.euclideanLengths.get(docID);
-                        } else {
-                            lenD = index.docLengths.get(docID);
-                        }
-                        double tf_idf = tf * idf * query.queryterm.get(i).weight / lenD;
-                        if (scores.containsKey(docID)) { // add score to document if doc already exist
-                            scores.replace(docID, scores.get(docID) + tf_idf);
-                        } else {
-                            scores.put(docID, tf_idf);
-                        }
-                    }
+                DocIdSet docs = docIdSet(query.queryterm.get(i).term);
+                if (docs != null) matching = matching.or(docs);
+            }
+            results.totalHits = countMatches(matching, lengths);
+            return results;
+        }
+        // the first k of the full ranking have at least k - tierSize documents outside the tier
+        PostingsList rest = fullRankedQuery(query, lengths, normType, rankingType, k, 0);
+        HashSet<Integer> inTier = new HashSet<Integer>();
+        int rank = 0;
+        for (int i = 0; i < tier.size(); i++, rank++) {
+            inTier.add(tier.get(i).docID);
+            if (rank >= skip) results.add(tier.get(i));
+        }
+        for (int i = 0; i < rest.size() && rank < k; i++) {
+            if (inTier.contains(rest.get(i).docID)) continue;
+            if (rank >= skip) results.add(rest.get(i));
+            rank++;
+        }
+        results.totalHits = rest.totalHits();
+        return results;
+    }
+
+    /**
+     *  Adds the tf-idf scores of the query terms to the accumulator. If
+     *  <code>champions</code> is true, only the champion lists are read.
+     */
+    private void accumulateScores( Query query, double[] lengths, ScoreAccumulator scores, boolean champions ) {
+        int N = index.docNames.size();
+        for (int i = 0; i < query.queryterm.size(); i++) {
+            String term = query.queryterm.get(i).term;
+            PostingsList nextPostingsList = champions ? championLists.getPostings(term) : rankedPostings(term);
+
+            if (nextPostingsList != null) {
+                int df = champions ? championLists.docFrequency(term) : nextPostingsList.size();
+                double idf = Math.log((double) N / df);
+                double termWeight = idf * query.queryterm.get(i).weight;
+                for (int j = 0; j < nextPostingsList.size(); j++) {
+                    PostingsEntry entry = nextPostingsList.get(j);
+                    int docID = entry.docID;
+                    if (index.isDeleted(docID)) continue;
+                    double lenD = docID < lengths.length ? lengths[docID] : 0;
+                    if (lenD == 0) continue; // no length known for this document
+                    scores.add(docID, entry.score * termWeight / lenD);
                 }
-            } 
-
-            for (Integer docID : scores.keySet()) {
-                double tfScore = scores.get(docID);
-                double prScore = pagerankMap.getOrDefault(docID, 0.0);
-                double finalScore;
-                switch (rankingType) {
-                    case TF_IDF:
-                        finalScore = tfScore;
-                        break;
-                    case PAGERANK:
-                        finalScore = prScore;
-                        break;
-                    case COMBINATION:
-                        finalScore = 1 * tfScore + 500 * prScore; // change these weight values
-                        break;
-                    default:
-                        finalScore = tfScore;
-                    }
-                PostingsEntry entry = new PostingsEntry(docID);
-                entry.setScore(finalScore);
-                results.add(entry);
             }
+        }
+    }
 
-            results.sort();
-            return results;
-        } else {
-            return hitsRanking(query);
+    /**
+     *  Returns the documents ranked skip+1 to k by the accumulated scores,
+     *  combined with PageRank as the ranking type says, and clears the
+     *  accumulator.
+     */
+    private PostingsList topK( ScoreAccumulator scores, RankingType rankingType, int k, int skip ) {
+        TopKHeap heap = new TopKHeap(k);
+        for (int d = 0; d < scores.size(); d++) {
+            int docID = scores.docID(d);
+            double tfScore = scores.score(docID);
+            double prScore = pageranks == null ? 0 : pageranks.score(docID);
+            heap.offer(docID, finalScore(rankingType, tfScore, prScore));
+        }
+
+        PostingsList results = heap.toPostingsList(skip);
+        results.totalHits = scores.size();
+        scores.clear();
+        return results;
+    }
+
+    /**
+     *  Returns the score of a document for a ranking type, from its tf-idf
+     *  score and its PageRank.
+     */
+    private static double finalScore( RankingType rankingType, double tfScore, double prScore ) {
+        switch (rankingType) {
+            case TF_IDF:
+                return tfScore;
+            case PAGERANK:
+                return prScore;
+            case COMBINATION:
+                return 1 * tfScore + 500 * prScore; // change these weight values
+            default:
+                return tfScore;
         }
     }
 
-    private PostingsList hitsRanking( Query query ) {
+    /**
+     *  Returns true if a ranked query can stop early because the docIDs
+     *  are in order of decreasing PageRank.
+     */
+    private boolean useStaticRankOrder( RankingType rankingType ) {
+        return pageranks != null && pageranks.isDescending()
+            && (rankingType == RankingType.PAGERANK || rankingType == RankingType.COMBINATION);
+    }
+
+    /**
+     *  Returns the documents ranked skip+1 to k by PageRank or by the
+     *  combination, when the docIDs are in order of decreasing PageRank.
+     *  The postings are merged document-at-a-time in docID order, so the
+     *  PageRank of the documents left only goes down. The merge stops
+     *  once the best score a document left can get, its PageRank together
+     *  with the tf-idf bounds of all terms, can't beat the k-th best.
+     */
+    private PostingsList staticRankQuery( Query query, double[] lengths, NormalizationType normType, RankingType rankingType, int k, int skip ) {
+        int N = index.docNames.size();
+        int n = query.queryterm.size();
+        PostingsList[] postings = new PostingsList[n];
+        double[] termWeights = new double[n];
+        double maxTfScore = 0;
+        DocIdSet matching = new DocIdSet();
+        for (int i = 0; i < n; i++) {
+            String term = query.queryterm.get(i).term;
+            postings[i] = rankedPostings(term);
+            if (postings[i] == null) continue;
+            termWeights[i] = Math.log((double) N / postings[i].size()) * query.queryterm.get(i).weight;
+            if (rankingType == RankingType.COMBINATION) {
+                maxTfScore += Math.max(0, scoreBounds(term, postings[i]).maxRatio[normType.ordinal()] * termWeights[i]);
+            }
+            // the postings have been read already, so the set is built from them
+            matching = matching.or(DocIdSet.of(postings[i]));
+        }
+        maxTfScore *= WandEvaluator.BOUND_SLACK;
+
+        TopKHeap heap = new TopKHeap(k);
+        int[] pos = new int[n];
+        while (true) {
+            int docID = Integer.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                if (postings[i] != null && pos[i] < postings[i].size()) {
+                    docID = Math.min(docID, postings[i].get(pos[i]).docID);
+                }
+            }
+            if (docID == Integer.MAX_VALUE) break;
+            double prScore = pageranks.score(docID);
+            // a tie with the k-th best loses on the larger docID
+            if (heap.isFull() && heap.threshold() >= finalScore(rankingType, maxTfScore, prScore)) break;
+            double lenD = docID < lengths.length ? lengths[docID] : 0;
+            boolean scored = !index.isDeleted(docID) && lenD != 0;
+            double tfScore = 0;
+            for (int i = 0; i < n; i++) {
+                if (postings[i] != null && pos[i] < postings[i].size() && postings[i].get(pos[i]).docID == docID) {
+                    if (scored) tfScore += postings[i].get(pos[i]).score * termWeights[i] / lenD;
+                    pos[i]++;
+                }
+            }
+            if (scored) heap.offer(docID, finalScore(rankingType, tfScore, prScore));
+        }
+
+        PostingsList results = heap.toPostingsList(skip);
+        results.totalHits = countMatches(matching, lengths);
+        return results;
+    }
+
+    /**
+     *  Returns the number of documents in the set that can be ranked, i.e.
+     *  that are not deleted and have a length.
+     */
+    private int countMatches( DocIdSet matching, double[] lengths ) {
+        int count = 0;
+        for (int docID : matching.toArray()) {
+            if (!index.isDeleted(docID) && docID < lengths.length && lengths[docID] != 0) count++;
+        }
+        return count;
+    }
+
+    /**
+     *  Returns true if a ranked query should first be answered from the
+     *  champion lists. They are not used once documents have been added
+     *  after they were built, or for wildcard terms, which have no lists.
+     */
+    private boolean useChampionLists( Query query, RankingType rankingType ) {
+        return championLists != null
+            && (rankingType == RankingType.TF_IDF || rankingType == RankingType.COMBINATION)
+            && !hasWildcard(query)
+            && championLists.docCount == index.docNames.size();
+    }
+
+    /**
+     *  Returns the documents ranked skip+1 to k by tf-idf, evaluated
+     *  document-at-a-time with (Block-Max) WAND.
+     */
+    private PostingsList wandQuery( Query query, double[] lengths, NormalizationType normType, int k, int skip ) {
+        int N = index.docNames.size();
+        WandEvaluator evaluator = new WandEvaluator(index, lengths, normType, pruningType == PruningType.BLOCK_MAX_WAND);
+        DocIdSet matching = new DocIdSet();
+        for (int i = 0; i < query.queryterm.size(); i++) {
+            String term = query.queryterm.get(i).term;
+            PostingsList postings = rankedPostings(term);
+            if (postings != null) {
+                double idf = Math.log((double) N / postings.size());
+                evaluator.addTerm(postings, scoreBounds(term, postings), idf * query.queryterm.get(i).weight);
+                // the postings have been read already, a cached set only saves building one
+                DocIdSet cached = isPattern(term) ? null : cachedDocIdSet(term);
+                matching = matching.or(cached != null ? cached : DocIdSet.of(postings));
+            }
+        }
+        TopKHeap heap = new TopKHeap(k);
+        evaluator.evaluate(heap);
+        synchronized (this) {
+            wandQueries++;
+            wandTotalPostings += evaluator.totalPostings;
+            wandScoredPostings += evaluator.scoredPostings;
+        }
+
+        PostingsList results = heap.toPostingsList(skip);
+        // the skipped documents are still counted as matches
+        results.totalHits = countMatches(matching, lengths);
+        return results;
+    }
+
+    /**
+     *  Returns true if a ranked query should be evaluated score-at-a-time.
+     *  The layout is not used once documents have been added after it was
+     *  built, or for wildcard terms and other terms that are not in it.
+     */
+    private boolean useImpactIndex( Query query ) {
+        return impactIndex != null
+            && query.queryterm.size() >= IMPACT_MIN_TERMS
+            && !hasWildcard(query)
+            && impactIndex.docCount == index.docNames.size()
+            && impactIndex.covers(query, index);
+    }
+
+    /**
+     *  Returns the documents ranked skip+1 to k by quantized tf-idf, processing
+     *  at most <code>postingBudget</code> postings of the impact-ordered layout.
+     *  The scores are approximate, and so is the ranking if the budget runs out.
+     */
+    private PostingsList impactQuery( Query query, NormalizationType normType, int k, int skip ) {
+        ScoreAccumulator scores = accumulators.get();
+        scores.ensureCapacity(impactIndex.docCount);
+        long processed = impactIndex.evaluate(query, normType, index, scores, postingBudget);
+        synchronized (this) {
+            impactQueries++;
+            impactPostings += processed;
+            if (processed >= postingBudget) impactExhausted++;
+        }
+        TopKHeap heap = new TopKHeap(k);
+        for (int d = 0; d < scores.size(); d++) {
+            int docID = scores.docID(d);
+            heap.offer(docID, scores.score(docID));
+        }
+        PostingsList results = heap.toPostingsList(skip);
+        results.totalHits = scores.size();
+        scores.clear();
+        return results;
+    }
+
+    /**
+     *  Returns the number of WAND queries and the part of the postings in
+     *  their lists that they scored, the rest were skipped.
+     */
+    synchronized String pruningStats() {
+        return String.format("%s: %d queries scored %.1f%% of their postings (%d of %d)",
+                             pruningType, wandQueries, wandTotalPostings == 0 ? 0.0 : 100.0 * wandScoredPostings / wandTotalPostings,
+                             wandScoredPostings, wandTotalPostings);
+    }
+
+    /**
+     *  Returns the number of score-at-a-time queries, how many of them
+     *  reached the posting budget and so have an approximate ranking, and
+     *  the postings they processed.
+     */
+    synchronized String impactStats() {
+        return String.format("Impact-ordered index: %d queries, %d reached the budget of %d postings (approximate ranking), %.0f postings per query",
+                             impactQueries, impactExhausted, postingBudget, impactQueries == 0 ? 0.0 : (double) impactPostings / impactQueries);
+    }
+
+    /**
+     *  Returns the score bounds of a term. Bounds that are missing or were
+     *  computed before documents were added or merged away are recomputed.
+     *  The bounds of wildcard terms depend on their expansions and are not kept.
+     */
+    private ScoreBounds scoreBounds( String term, PostingsList postings ) {
+        if (isPattern(term)) {
+            return ScoreBounds.of(postings, index);
+        }
+        ScoreBounds bounds = index.scoreBounds.get(term);
+        if (bounds == null || bounds.df != postings.size()) {
+            bounds = ScoreBounds.of(postings, index);
+            index.scoreBounds.put(term, bounds);
+        }
+        return bounds;
+    }
+
+    /**
+     *  Ranks the documents linked to and from the documents of the query
+     *  by HITS. The root set is the <code>hitsRootSize</code> best matching
+     *  documents by tf-idf, or all matching documents.
+     */
+    private PostingsList hitsRanking( Query query, NormalizationType normType ) {
+        if (hitsRanker == null) {
+            System.err.println("No link graph is loaded for HITS, give the engine -links and -titles");
+            return null;
+        }
+        if (hitsRootSize > 0) {
+            PostingsList rootSet = rankedQuery(query, RankingType.TF_IDF, normType, hitsRootSize, 0);
+            return hitsRanker.rank(rootSet);
+        }
         Set<Integer> rootDocIDs = new HashSet<>();
 
         for (int i = 0; i < query.queryterm.size(); i++) {
             String term = query.queryterm.get(i).term;
-            PostingsList nextPostingsList = index.getPostings(term);
+            PostingsList nextPostingsList = rankedPostings(term);
             if (nextPostingsList != null) {
                 for (int j = 0; j < nextPostingsList.size(); j++) {
                     PostingsEntry entry = nextPostingsList.get(j);
+                    if (index.isDeleted(entry.docID)) continue;
                     rootDocIDs.add(entry.docID);
                 }
             }
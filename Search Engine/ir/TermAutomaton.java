@@ -0,0 +1,88 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+
+/**
+ *   A deterministic automaton over the characters of a term, built lazily.
+ *
+ *   Subclasses describe their states as values (a set of NFA states, a row
+ *   of edit distances) and how a character changes them. Every state that
+ *   is reached gets a number, and the transitions are cached, so each one
+ *   is only computed once. State -1 is the dead state, from which no
+ *   term can be accepted.
+ *
+ *   @param <S>  The value of a state, with equals and hashCode by content.
+ */
+abstract class TermAutomaton<S> {
+
+    /** The dead state. */
+    static final int DEAD = -1;
+
+    /** The number of each state value seen so far. */
+    private final HashMap<S,Integer> ids = new HashMap<S,Integer>();
+
+    /** The state values, by number. */
+    private final ArrayList<S> states = new ArrayList<S>();
+
+    /** Whether each state is accepting. */
+    private final ArrayList<Boolean> accepting = new ArrayList<Boolean>();
+
+    /** The cached transitions, keyed on the state number and the character. */
+    private final HashMap<Long,Integer> transitions = new HashMap<Long,Integer>();
+
+
+    /** Returns the value of the start state. */
+    protected abstract S startValue();
+
+    /** Returns the value after reading a character, or null if it is dead. */
+    protected abstract S nextValue( S value, char c );
+
+    /** Returns true if the value is an accepting state. */
+    protected abstract boolean acceptsValue( S value );
+
+
+    /** Returns the number of a state value, numbering it if it is new. */
+    private int id( S value ) {
+        if (value == null) return DEAD;
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = states.size();
+            ids.put(value, id);
+            states.add(value);
+            accepting.add(acceptsValue(value));
+        }
+        return id;
+    }
+
+
+    /** Returns the start state. */
+    int start() {
+        return id(startValue());
+    }
+
+
+    /** Returns the state after reading a character, or DEAD. */
+    int step( int state, char c ) {
+        if (state == DEAD) return DEAD;
+        long key = ((long) state << 16) | c;
+        Integer next = transitions.get(key);
+        if (next == null) {
+            next = id(nextValue(states.get(state), c));
+            transitions.put(key, next);
+        }
+        return next;
+    }
+
+
+    /** Returns true if the state is accepting. */
+    boolean isAccepting( int state ) {
+        return state != DEAD && accepting.get(state);
+    }
+}
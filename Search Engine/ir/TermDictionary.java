@@ -0,0 +1,373 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ *   The vocabulary of the index in sorted order, with a suffix array for
+ *   expanding wildcard terms.
+ *
+ *   The terms are joined into one text with a separator before and after
+ *   every term, and the suffix array has the start of every suffix of
+ *   the text in sorted order. A suffix is only compared up to the end of
+ *   its term, so the array is built by sorting the suffixes of the
+ *   terms, with a multikey quicksort on primitive positions. A wildcard pattern can have any number of '*' (any string) and
+ *   '?' (any one character). The literal parts of the pattern are
+ *   looked up in the suffix array. A part at the start of the pattern
+ *   includes the separator before the term and a part at the end includes
+ *   the one after it, so "*ing" costs as much as "ing*". The terms of
+ *   the part with the fewest occurrences are then checked against the
+ *   whole pattern.
+ */
+public class TermDictionary {
+
+    /** Separates the terms in the text, it is not in any term. */
+    static final char SEPARATOR = '\u0001';
+
+    /** A fuzzy term: the term, '~' and the maximum number of edits. */
+    private static final Pattern FUZZY = Pattern.compile("([^~]+)~(\\d*)");
+
+    /** The number of edits of a fuzzy term without one. */
+    static final int DEFAULT_EDITS = 2;
+
+    /** The terms in increasing order. */
+    final String[] terms;
+
+    /** The terms joined by separators, with one before the first and after the last. */
+    private final char[] text;
+
+    /** The term of each position of the text, a separator belongs to the term after it. */
+    private final int[] termOf;
+
+    /** The start of every suffix of the text that starts in a term or at its separator, in sorted order. */
+    private final int[] suffixes;
+
+
+    /**
+     *  Builds the dictionary of a vocabulary.
+     */
+    public TermDictionary( Collection<String> vocabulary ) {
+        terms = vocabulary.toArray(new String[0]);
+        Arrays.sort(terms);
+        int length = 1;
+        for (String term : terms) {
+            length += term.length() + 1;
+        }
+        text = new char[length];
+        termOf = new int[length];
+        int pos = 0;
+        for (int t = 0; t < terms.length; t++) {
+            termOf[pos] = t;
+            text[pos++] = SEPARATOR;
+            for (int i = 0; i < terms[t].length(); i++) {
+                termOf[pos] = t;
+                text[pos++] = terms[t].charAt(i);
+            }
+        }
+        termOf[pos] = -1;
+        text[pos] = SEPARATOR;
+
+        // the last separator starts no suffix of a term
+        suffixes = new int[length - 1];
+        for (int i = 0; i < suffixes.length; i++) {
+            suffixes[i] = i;
+        }
+        sortSuffixes(0, suffixes.length, 0);
+    }
+
+
+    /** Ranges with fewer suffixes than this are sorted by insertion. */
+    private static final int INSERTION_SORT = 16;
+
+
+    /**
+     *  Sorts suffixes[from..to), whose first d characters are equal, by
+     *  multikey quicksort: the suffixes are split three ways on their
+     *  character d, and the equal part goes on with character d+1. Suffixes
+     *  that end at the same place are equal and stay in text order.
+     */
+    private void sortSuffixes( int from, int to, int d ) {
+        while (to - from > 1) {
+            if (to - from < INSERTION_SORT) {
+                for (int i = from + 1; i < to; i++) {
+                    int suffix = suffixes[i];
+                    int j = i;
+                    for (; j > from && compareSuffixes(suffixes[j - 1], suffix) > 0; j--) {
+                        suffixes[j] = suffixes[j - 1];
+                    }
+                    suffixes[j] = suffix;
+                }
+                return;
+            }
+            char pivot = text[suffixes[(from + to) >>> 1] + d];
+            int lt = from, gt = to - 1, i = from;
+            while (i <= gt) {
+                char c = text[suffixes[i] + d];
+                if (c < pivot) {
+                    swap(lt++, i++);
+                } else if (c > pivot) {
+                    swap(i, gt--);
+                } else {
+                    i++;
+                }
+            }
+            sortSuffixes(from, lt, d);
+            sortSuffixes(gt + 1, to, d);
+            if (d > 0 && pivot == SEPARATOR) {
+                Arrays.sort(suffixes, lt, gt + 1);
+                return;
+            }
+            from = lt;
+            to = gt + 1;
+            d++;
+        }
+    }
+
+
+    /** Swaps two entries of the suffix array. */
+    private void swap( int i, int j ) {
+        int suffix = suffixes[i];
+        suffixes[i] = suffixes[j];
+        suffixes[j] = suffix;
+    }
+
+
+    /** Returns the number of terms. */
+    public int size() {
+        return terms.length;
+    }
+
+
+    /**
+     *  Compares two suffixes up to the separator at the end of their terms.
+     */
+    private int compareSuffixes( int a, int b ) {
+        for (int i = 0; ; i++) {
+            char ca = text[a + i];
+            char cb = text[b + i];
+            if (ca != cb) {
+                return Character.compare(ca, cb);
+            }
+            if (i > 0 && ca == SEPARATOR) {
+                return Integer.compare(a, b);
+            }
+        }
+    }
+
+
+    /**
+     *  Compares the suffix at <code>pos</code> with a key, and returns 0 if
+     *  the key is a prefix of the suffix.
+     */
+    private int compareWithKey( int pos, String key ) {
+        for (int i = 0; i < key.length(); i++) {
+            char c = text[pos + i];
+            if (c != key.charAt(i)) {
+                return Character.compare(c, key.charAt(i));
+            }
+            if (i > 0 && c == SEPARATOR) {
+                // the suffix ends before the key does
+                return i + 1 < key.length() ? -1 : 0;
+            }
+        }
+        return 0;
+    }
+
+
+    /**
+     *  Returns the first index in the suffix array whose suffix is not
+     *  smaller than the key, or, if <code>after</code> is true, does not
+     *  start with the key.
+     */
+    private int search( String key, boolean after ) {
+        int lo = 0;
+        int hi = suffixes.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareWithKey(suffixes[mid], key);
+            if (c < 0 || (after && c == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+
+    /**
+     *  Returns the terms that match a pattern: /regex/ for a regular
+     *  expression, term~k for the terms within k edits of a term (k is 2
+     *  if it is left out), or else a wildcard pattern.
+     */
+    public List<String> expand( String pattern ) {
+        Matcher fuzzy = FUZZY.matcher(pattern);
+        if (isRegex(pattern)) {
+            try {
+                return expand(new RegexAutomaton(pattern.substring(1, pattern.length() - 1)));
+            } catch ( IllegalArgumentException | StringIndexOutOfBoundsException e ) {
+                System.err.println( "Invalid regular expression " + pattern + ": " + e.getMessage() );
+                return new ArrayList<String>();
+            }
+        } else if (fuzzy.matches()) {
+            int k = fuzzy.group(2).isEmpty() ? DEFAULT_EDITS : Integer.parseInt(fuzzy.group(2));
+            return expand(new LevenshteinAutomaton(fuzzy.group(1), k));
+        }
+        return expandWildcard(pattern);
+    }
+
+
+    /**
+     *  Returns the terms accepted by an automaton. The terms are walked in
+     *  sorted order, and the states along the prefix a term shares with the
+     *  one before it are kept, so each prefix of the vocabulary is read at
+     *  most once. When a prefix leads to the dead state, all terms with it
+     *  are skipped by a binary search. The cost follows the number of
+     *  prefixes the automaton can continue, not the size of the vocabulary.
+     */
+    List<String> expand( TermAutomaton<?> automaton ) {
+        ArrayList<String> matches = new ArrayList<String>();
+        int[] states = new int[16];
+        states[0] = automaton.start();
+        if (states[0] == TermAutomaton.DEAD) {
+            return matches;
+        }
+        String previous = "";
+        int valid = 0; // states[0..valid] belong to prefixes of previous
+        int t = 0;
+        while (t < terms.length) {
+            String term = terms[t];
+            if (states.length <= term.length()) {
+                states = Arrays.copyOf(states, 2 * term.length() + 1);
+            }
+            int depth = 0;
+            int limit = Math.min(valid, Math.min(previous.length(), term.length()));
+            while (depth < limit && previous.charAt(depth) == term.charAt(depth)) {
+                depth++;
+            }
+            while (depth < term.length()) {
+                states[depth + 1] = automaton.step(states[depth], term.charAt(depth));
+                if (states[depth + 1] == TermAutomaton.DEAD) break;
+                depth++;
+            }
+            previous = term;
+            valid = depth;
+            if (depth < term.length()) {
+                // no term with this prefix can be accepted
+                t = skipPrefix(t, term.substring(0, depth + 1));
+                continue;
+            }
+            if (automaton.isAccepting(states[depth])) {
+                matches.add(term);
+            }
+            t++;
+        }
+        return matches;
+    }
+
+
+    /**
+     *  Returns the index of the first term after <code>t</code> that does
+     *  not start with the prefix. The terms with the prefix follow each
+     *  other, starting at <code>t</code>.
+     */
+    private int skipPrefix( int t, String prefix ) {
+        int lo = t + 1;
+        int hi = terms.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (terms[mid].startsWith(prefix)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+
+    /**
+     *  Returns the terms that match a wildcard pattern with '*' and '?'.
+     */
+    public List<String> expandWildcard( String pattern ) {
+        // the literal parts, with the separators of the anchored ends
+        String anchored = SEPARATOR + pattern + SEPARATOR;
+        String best = null;
+        int bestFrom = 0;
+        int bestTo = terms.length == 0 ? 0 : Integer.MAX_VALUE;
+        for (String part : anchored.split("[*?]")) {
+            if (part.isEmpty() || part.equals(String.valueOf(SEPARATOR))) continue;
+            int from = search(part, false);
+            int to = search(part, true);
+            if (best == null || to - from < bestTo - bestFrom) {
+                best = part;
+                bestFrom = from;
+                bestTo = to;
+            }
+        }
+
+        ArrayList<String> matches = new ArrayList<String>();
+        Matcher matcher = compile(pattern).matcher("");
+        if (best == null) {
+            // only wildcards, every term is a candidate
+            for (String term : terms) {
+                if (matcher.reset(term).matches()) matches.add(term);
+            }
+            return matches;
+        }
+        BitSet candidates = new BitSet(terms.length);
+        for (int i = bestFrom; i < bestTo; i++) {
+            candidates.set(termOf[suffixes[i]]);
+        }
+        for (int t = candidates.nextSetBit(0); t >= 0; t = candidates.nextSetBit(t + 1)) {
+            if (matcher.reset(terms[t]).matches()) matches.add(terms[t]);
+        }
+        return matches;
+    }
+
+
+    /**
+     *  Returns a regular expression for a wildcard pattern.
+     */
+    static Pattern compile( String pattern ) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > start) regex.append(Pattern.quote(pattern.substring(start, i)));
+                regex.append(c == '*' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        if (start < pattern.length()) regex.append(Pattern.quote(pattern.substring(start)));
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+
+    /**
+     *  Returns true if a query term has the syntax of a pattern that is
+     *  expanded to the terms matching it: a wildcard, a /regex/ or a fuzzy
+     *  term~k. Terms of the vocabulary can have it too.
+     */
+    public static boolean isPattern( String term ) {
+        return term.indexOf('*') >= 0 || term.indexOf('?') >= 0 || isRegex(term) || FUZZY.matcher(term).matches();
+    }
+
+
+    /** Returns true if a query term is a /regex/. */
+    private static boolean isRegex( String term ) {
+        return term.length() >= 2 && term.charAt(0) == '/' && term.charAt(term.length() - 1) == '/';
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+
+/**
+ *   Keeps the k best scoring documents seen so far in a bounded min-heap,
+ *   stored in primitive arrays so that offering a candidate allocates
+ *   nothing.
+ *
+ *   Documents are ordered by descending score, and by ascending docID
+ *   when the scores are equal.
+ */
+class TopKHeap {
+
+    /** The docIDs in the heap, the worst one at position 0. */
+    private int[] docIDs = new int[16];
+
+    /** The scores of the docIDs in the heap. */
+    private double[] scores = new double[16];
+
+    /** Number of documents in the heap. */
+    private int size = 0;
+
+    /** Maximum number of documents in the heap. */
+    private int k;
+
+
+    TopKHeap( int k ) {
+        this.k = k;
+    }
+
+
+    /**
+     *  Empties the heap and sets a new maximum size.
+     */
+    void reset( int k ) {
+        this.k = k;
+        size = 0;
+    }
+
+
+    /** Number of documents in the heap. */
+    int size() {
+        return size;
+    }
+
+
+    /** Returns true if the heap holds k documents. */
+    boolean isFull() {
+        return size >= k;
+    }
+
+
+    /**
+     *  Returns the score a new document has to beat to enter the heap.
+     */
+    double threshold() {
+        return isFull() && size > 0 ? scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+
+    /**
+     *  Returns true if document a ranks below document b.
+     */
+    private static boolean worse( double scoreA, int docA, double scoreB, int docB ) {
+        return scoreA < scoreB || (scoreA == scoreB && docA > docB);
+    }
+
+
+    /**
+     *  Offers a document to the heap. Returns true if it was kept.
+     */
+    boolean offer( int docID, double score ) {
+        if (k <= 0) {
+            return false;
+        }
+        if (size < k) {
+            if (size == docIDs.length) {
+                int capacity = (int) Math.min((long) k, 2L * size);
+                docIDs = Arrays.copyOf(docIDs, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+            }
+            // sift up
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!worse(score, docID, scores[parent], docIDs[parent])) break;
+                docIDs[i] = docIDs[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            docIDs[i] = docID;
+            scores[i] = score;
+            return true;
+        }
+        if (!worse(scores[0], docIDs[0], score, docID)) {
+            return false;
+        }
+        siftDown(docID, score);
+        return true;
+    }
+
+
+    /**
+     *  Replaces the worst document with a new one and restores the heap.
+     */
+    private void siftDown( int docID, double score ) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && worse(scores[child + 1], docIDs[child + 1], scores[child], docIDs[child])) {
+                child++;
+            }
+            if (!worse(scores[child], docIDs[child], score, docID)) break;
+            docIDs[i] = docIDs[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        docIDs[i] = docID;
+        scores[i] = score;
+    }
+
+
+    /**
+     *  Empties the heap into a postings list in descending order of score,
+     *  leaving out the <code>skip</code> best documents.
+     */
+    PostingsList toPostingsList( int skip ) {
+        int n = size;
+        PostingsEntry[] sorted = new PostingsEntry[Math.max(0, n - skip)];
+        for (int i = n - 1; i >= 0; i--) {
+            int docID = docIDs[0];
+            double score = scores[0];
+            size--;
+            if (size > 0) {
+                siftDown(docIDs[size], scores[size]);
+            }
+            if (i >= skip) {
+                PostingsEntry entry = new PostingsEntry(docID);
+                entry.setScore(score);
+                sorted[i - skip] = entry;
+            }
+        }
+        PostingsList results = new PostingsList();
+        results.list.addAll(Arrays.asList(sorted));
+        return results;
+    }
+}
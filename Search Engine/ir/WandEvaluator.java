@@ -0,0 +1,240 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.ArrayList;
+
+
+/**
+ *   Evaluates ranked tf-idf queries document-at-a-time with WAND or
+ *   Block-Max WAND.
+ *
+ *   One cursor walks the docID-ordered postings of each query term. A
+ *   document is only scored if the upper bounds of the terms that can
+ *   contain it add up to more than the score of the kth best document
+ *   so far; the cursors skip over all other documents. Block-Max WAND
+ *   also checks the bounds of the blocks the document falls in. The
+ *   scores are added in query term order, exactly as in term-at-a-time
+ *   scoring, so the top k is the same.
+ */
+class WandEvaluator {
+
+    /** Bounds are made slightly larger so that rounding never puts them below a real score. */
+    static final double BOUND_SLACK = 1 + 1e-9;
+
+    /** Cursor position of a list that has been read to the end. */
+    static final int END = Integer.MAX_VALUE;
+
+    private final Index index;
+
+    /** Document lengths for the normalization type, indexed by docID. */
+    private final double[] lengths;
+
+    /** Index of the normalization type in the bounds. */
+    private final int norm;
+
+    /** If true, the block bounds are used as well as the term bounds. */
+    private final boolean blockMax;
+
+    /** The cursors in query term order. */
+    private final ArrayList<Cursor> terms = new ArrayList<>();
+
+    /** Number of postings that were scored by the query. */
+    long scoredPostings = 0;
+
+    /** Number of postings in the lists of the query. */
+    long totalPostings = 0;
+
+
+    /**
+     *  The position in the postings list of one query term.
+     */
+    private static class Cursor {
+        final PostingsList postings;
+        final ScoreBounds bounds;
+
+        /** idf times the query weight of the term. */
+        final double weight;
+
+        /** Upper bound on the score contribution of the term. */
+        final double maxScore;
+
+        /** Current position in the postings and in the blocks. */
+        int pos = 0;
+        int block = 0;
+        int docID;
+
+        Cursor( PostingsList postings, ScoreBounds bounds, double weight, double maxScore ) {
+            this.postings = postings;
+            this.bounds = bounds;
+            this.weight = weight;
+            this.maxScore = maxScore;
+            docID = postings.size() > 0 ? postings.get(0).docID : END;
+        }
+
+        /** Moves the block position to the block that can contain <code>target</code>. */
+        void shallowAdvance( int target ) {
+            while (block < bounds.blocks() && bounds.blockLastDocID[block] < target) {
+                block++;
+            }
+        }
+
+        /** Moves to the first posting with a docID of at least <code>target</code>. */
+        void advance( int target ) {
+            if (docID >= target) return;
+            shallowAdvance(target);
+            pos = Math.max(pos + 1, block * ScoreBounds.BLOCK_SIZE);
+            while (pos < postings.size() && postings.get(pos).docID < target) {
+                pos++;
+            }
+            docID = pos < postings.size() ? postings.get(pos).docID : END;
+        }
+
+        /** Moves to the next posting. */
+        void next() {
+            pos++;
+            docID = pos < postings.size() ? postings.get(pos).docID : END;
+        }
+    }
+
+
+    WandEvaluator( Index index, double[] lengths, NormalizationType normType, boolean blockMax ) {
+        this.index = index;
+        this.lengths = lengths;
+        this.norm = normType.ordinal();
+        this.blockMax = blockMax;
+    }
+
+
+    /**
+     *  Adds a query term. <code>weight</code> is the idf times the query
+     *  weight of the term.
+     */
+    void addTerm( PostingsList postings, ScoreBounds bounds, double weight ) {
+        // a negative weight can only lower the score
+        double maxScore = weight > 0 ? weight * bounds.maxRatio[norm] * BOUND_SLACK : 0;
+        terms.add(new Cursor(postings, bounds, weight, maxScore));
+        totalPostings += postings.size();
+    }
+
+
+    /**
+     *  Returns the bound on the contribution of a cursor to the documents
+     *  in the block that can contain <code>target</code>.
+     */
+    private double blockMaxScore( Cursor c, int target ) {
+        c.shallowAdvance(target);
+        if (c.weight <= 0 || c.block >= c.bounds.blocks()) {
+            return 0;
+        }
+        return c.weight * c.bounds.blockMaxRatio[norm][c.block] * BOUND_SLACK;
+    }
+
+
+    /**
+     *  Returns the last docID of the block that can contain <code>target</code>.
+     */
+    private static int blockEnd( Cursor c, int target ) {
+        c.shallowAdvance(target);
+        return c.block < c.bounds.blocks() ? c.bounds.blockLastDocID[c.block] : END;
+    }
+
+
+    /**
+     *  Puts the cursors in order of their current docIDs.
+     */
+    private static void sort( Cursor[] cursors ) {
+        for (int i = 1; i < cursors.length; i++) {
+            Cursor c = cursors[i];
+            int j = i - 1;
+            while (j >= 0 && cursors[j].docID > c.docID) {
+                cursors[j + 1] = cursors[j];
+                j--;
+            }
+            cursors[j + 1] = c;
+        }
+    }
+
+
+    /**
+     *  Scores the documents that can make it to the heap.
+     */
+    void evaluate( TopKHeap heap ) {
+        Cursor[] cursors = terms.toArray(new Cursor[0]);
+        while (true) {
+            sort(cursors);
+            double threshold = heap.threshold();
+
+            // the pivot is the first cursor where the bounds exceed the threshold
+            double upper = 0;
+            int pivot = -1;
+            for (int i = 0; i < cursors.length && cursors[i].docID != END; i++) {
+                upper += cursors[i].maxScore;
+                if (upper > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) {
+                break;
+            }
+            int pivotDocID = cursors[pivot].docID;
+            while (pivot + 1 < cursors.length && cursors[pivot + 1].docID == pivotDocID) {
+                pivot++;
+            }
+
+            if (blockMax) {
+                double blockUpper = 0;
+                for (int i = 0; i <= pivot; i++) {
+                    blockUpper += blockMaxScore(cursors[i], pivotDocID);
+                }
+                if (blockUpper <= threshold) {
+                    // nothing can make it before the end of one of the blocks
+                    // or the docID of the next cursor
+                    long next = pivot + 1 < cursors.length ? cursors[pivot + 1].docID : END;
+                    for (int i = 0; i <= pivot; i++) {
+                        next = Math.min(next, (long) blockEnd(cursors[i], pivotDocID) + 1);
+                    }
+                    for (int i = 0; i <= pivot; i++) {
+                        cursors[i].advance((int) Math.min(next, END));
+                    }
+                    continue;
+                }
+            }
+
+            if (cursors[0].docID == pivotDocID) {
+                score(pivotDocID, heap);
+                for (int i = 0; i <= pivot; i++) {
+                    cursors[i].next();
+                }
+            } else {
+                // the documents before the pivot can't make it
+                for (int i = 0; i < pivot; i++) {
+                    cursors[i].advance(pivotDocID);
+                }
+            }
+        }
+    }
+
+
+    /**
+     *  Scores a document that all cursors at it agree on, adding the
+     *  contributions in query term order.
+     */
+    private void score( int docID, TopKHeap heap ) {
+        if (index.isDeleted(docID)) return;
+        double lenD = docID < lengths.length ? lengths[docID] : 0;
+        if (lenD == 0) return; // no length known for this document
+        double score = 0;
+        for (Cursor c : terms) {
+            if (c.docID == docID) {
+                score += c.postings.get(c.pos).score * c.weight / lenD;
+                scoredPostings++;
+            }
+        }
+        heap.offer(docID, score);
+    }
+}
@@ -0,0 +1 @@
+java -cp classes -Xmx1g ir.Engine -d C:\Users\andre\Desktop\DD2477\davisWiki -l dd2477.png -p patterns.txt -inc